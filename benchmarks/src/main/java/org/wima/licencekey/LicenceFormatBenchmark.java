@@ -0,0 +1,140 @@
+package org.wima.licencekey;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary licence format with the Java serialization one it replaces: loading a whole licence (base64,
+ * envelope, signature check, licence) and encoding / decoding the licence bytes alone.
+ * <p/>
+ * Run this class main to print the size of both licences before the measures.
+ *
+ * @author Mathieu POUSSE
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LicenceFormatBenchmark {
+
+    private LicenceManagerImpl manager;
+
+    private ProductLicence licence;
+
+    private String binaryLicence;
+
+    private String serializedLicence;
+
+    private byte[] binaryBytes;
+
+    private byte[] serializedBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        this.manager = new LicenceManagerImpl();
+        this.manager.initialize();
+        // measure the decoding and the signature check, not the cache
+        this.manager.setCache(null);
+        this.licence = new ProductLicence();
+        this.licence.setOwner("Mathieu POUSSE");
+        this.licence.setExpireAt(new Date(1800000000000L));
+        this.licence.setFeatures(Arrays.asList("the", "wonderful", "features", "are", "enabled"));
+
+        this.binaryBytes = ProductLicenceCodec.encode(this.licence);
+        this.serializedBytes = serialize(this.licence);
+        this.binaryLicence = this.manager.saveLicence(this.licence);
+        this.serializedLicence = serializedLicence(this.serializedBytes);
+    }
+
+    private static byte[] serialize(final ProductLicence licence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream serializer = new ObjectOutputStream(bytes)) {
+            serializer.writeObject(licence);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a licence the way it was written before the binary format.
+     */
+    private static String serializedLicence(final byte[] licence) throws IOException {
+        LicenceEncryptionManagerImpl encryption = new LicenceEncryptionManagerImpl();
+        encryption.load("/public-key.der", "/private-key.der");
+        byte[] signature = encryption.sign(licence);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream serializer = new ObjectOutputStream(bytes)) {
+            serializer.writeInt(signature.length);
+            serializer.write(signature);
+            serializer.write(licence);
+        }
+        byte[] envelope = bytes.toByteArray();
+        for (int i = 0; i < envelope.length; i++) {
+            envelope[i] ^= 38;
+        }
+        String encoded = DatatypeConverter.printBase64Binary(envelope);
+        StringBuilder builder = new StringBuilder(LicenceManager.LICENCE_START).append('\n');
+        for (int i = 0; i < encoded.length(); i += LicenceManager.LICENCE_START.length()) {
+            builder.append(encoded, i, Math.min(encoded.length(), i + LicenceManager.LICENCE_START.length())).append('\n');
+        }
+        return builder.append(LicenceManager.LICENCE__END_).append("\n\n").toString();
+    }
+
+    @Benchmark
+    public ProductLicence loadBinary() {
+        return this.manager.loadLicence(this.binaryLicence);
+    }
+
+    @Benchmark
+    public ProductLicence loadSerialized() {
+        return this.manager.loadLicence(this.serializedLicence);
+    }
+
+    @Benchmark
+    public ProductLicence decodeBinary() throws IOException {
+        return ProductLicenceCodec.decode(this.binaryBytes);
+    }
+
+    @Benchmark
+    public ProductLicence decodeSerialized() throws IOException {
+        return ProductLicenceCodec.decode(this.serializedBytes);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return ProductLicenceCodec.encode(this.licence);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        return serialize(this.licence);
+    }
+
+    public static void main(final String... args) throws RunnerException, IOException {
+        LicenceFormatBenchmark sizes = new LicenceFormatBenchmark();
+        sizes.setup();
+        System.out.println("licence bytes : binary " + sizes.binaryBytes.length + ", serialized " + sizes.serializedBytes.length);
+        System.out.println("licence text  : binary " + sizes.binaryLicence.length() + ", serialized " + sizes.serializedLicence.length());
+
+        Options options = new OptionsBuilder()
+                .include(LicenceFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
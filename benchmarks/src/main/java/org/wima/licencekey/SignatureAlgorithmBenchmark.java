@@ -0,0 +1,106 @@
+package org.wima.licencekey;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the signature algorithms: signing and checking a whole licence, and the signature alone.
+ * <p/>
+ * Run this class main to print the signature and licence sizes of each algorithm before the measures (Ed25519 requires
+ * a Java 15+ runtime).
+ *
+ * @author Mathieu POUSSE
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureAlgorithmBenchmark {
+
+    @Param({"RSA", "ECDSA_P256", "ED25519"})
+    private SignatureAlgorithm algorithm;
+
+    private LicenceEncryptionManagerImpl encryption;
+
+    private LicenceManagerImpl manager;
+
+    private ProductLicence licence;
+
+    private byte[] licenceBytes;
+
+    private byte[] signature;
+
+    private String signedLicence;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        KeyPair keys = this.algorithm.generateKeyPair();
+        this.encryption = new LicenceEncryptionManagerImpl();
+        this.encryption.load(keys.getPublic().getEncoded(), keys.getPrivate().getEncoded());
+        this.manager = new LicenceManagerImpl();
+        this.manager.setEncryptionManager(this.encryption);
+        // measure the signature check, not the cache
+        this.manager.setCache(null);
+
+        this.licence = new ProductLicence();
+        this.licence.setOwner("Mathieu POUSSE");
+        this.licence.setExpireAt(new Date(1800000000000L));
+        this.licence.setFeatures(Arrays.asList("the", "wonderful", "features", "are", "enabled"));
+
+        this.licenceBytes = ProductLicenceCodec.encode(this.licence);
+        this.signature = this.encryption.sign(this.licenceBytes);
+        this.signedLicence = this.manager.saveLicence(this.licence);
+    }
+
+    @Benchmark
+    public String saveLicence() {
+        return this.manager.saveLicence(this.licence);
+    }
+
+    @Benchmark
+    public ProductLicence loadLicence() {
+        return this.manager.loadLicence(this.signedLicence);
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return this.encryption.sign(this.licenceBytes);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return this.encryption.verify(this.algorithm, this.licenceBytes, this.signature);
+    }
+
+    public static void main(final String... args) throws RunnerException, GeneralSecurityException {
+        for (final SignatureAlgorithm algorithm : SignatureAlgorithm.values()) {
+            if (!algorithm.isAvailable()) {
+                System.out.println(algorithm + " : not available");
+                continue;
+            }
+            SignatureAlgorithmBenchmark sizes = new SignatureAlgorithmBenchmark();
+            sizes.algorithm = algorithm;
+            sizes.setup();
+            System.out.println(algorithm + " : signature " + sizes.signature.length + " bytes, licence text "
+                    + sizes.signedLicence.length() + " characters");
+        }
+
+        Options options = new OptionsBuilder()
+                .include(SignatureAlgorithmBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
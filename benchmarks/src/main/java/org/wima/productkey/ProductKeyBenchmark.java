@@ -0,0 +1,195 @@
+package org.wima.productkey;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the product key operations for both character sets, several key lengths and pass counts.
+ * <p/>
+ * Run <code>java -jar benchmarks/target/benchmarks.jar ProductKeyBenchmark -prof gc</code>, or this class main, to
+ * get the allocation rate next to the throughput.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductKeyBenchmark {
+
+    private static final int[] SIZES = {4 /* 16 values */, 4 /* 16 values */, 8 /* 256 values */};
+
+    private static final int[] VALUES = {3, 12, 25};
+
+    private static final String OWNER = "Mathieu POUSSE";
+
+    private static final KeySchema SCHEMA = new KeySchema(KeySchema.Field.bits("a", 4), KeySchema.Field.bits("b", 4), KeySchema.Field.bits("c", 8));
+
+    @Param({"32", "64"})
+    public int characters;
+
+    @Param({"35", "64"})
+    public int keyLength;
+
+    @Param({"1", "3", "5"})
+    public int passes;
+
+    private ProductKeyGenerator generator;
+
+    private ProductKeyGenerator randomized;
+
+    private byte[] salt;
+
+    private String validKey;
+
+    private String invalidKey;
+
+    private String formattedKey;
+
+    private char[] request;
+
+    private KeyValues values;
+
+    @Setup
+    public void setup() {
+        this.generator = newGenerator();
+        this.randomized = newGenerator();
+        this.generator.randomize(bitsToHide(), this.keyLength);
+        this.salt = this.generator.salt(OWNER);
+        this.validKey = this.generator.pack(VALUES, SIZES, this.keyLength, this.salt, this.passes, false);
+        this.formattedKey = this.generator.formatKey(this.validKey, 5);
+        this.request = ("X-Licence-Key: " + this.formattedKey + "\r\n").toCharArray();
+        this.invalidKey = invalidKey();
+        this.values = SCHEMA.newValues();
+    }
+
+    private ProductKeyGenerator newGenerator() {
+        final int configuredPasses = this.passes;
+        final int configuredKeyLength = this.keyLength;
+        return new ProductKeyGenerator(this.characters == 64 ? ProductKeyManagerImpl.CHARACTERS_64 : ProductKeyManagerImpl.CHARACTERS_32) {
+            @Override
+            public String getLicenceSignature() {
+                throw new UnsupportedOperationException("the benchmark signature is randomized");
+            }
+
+            @Override
+            protected int getPasses() {
+                return configuredPasses;
+            }
+
+            @Override
+            protected int getKeyLength() {
+                return configuredKeyLength;
+            }
+        };
+    }
+
+    private int bitsToHide() {
+        int bits = 0;
+        for (final int size : SIZES) {
+            bits += size;
+        }
+        return bits;
+    }
+
+    /**
+     * Returns a random key failing the redundancy check, like a brute force attempt would. With a single pass there
+     * is no redundancy to check, an illegal character is used instead.
+     */
+    private String invalidKey() {
+        char[] alphabet = this.generator.getSignature().getCharacters();
+        Random random = new Random(42);
+        for (int attempt = 0; attempt < 10000 && this.passes > 1; attempt++) {
+            char[] key = new char[this.keyLength];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String candidate = new String(key);
+            if (this.generator.getSignature().codec(SIZES, this.passes).decode(candidate, this.salt) == null) {
+                return candidate;
+            }
+        }
+        return this.validKey.substring(0, this.keyLength - 1) + '!';
+    }
+
+    @Benchmark
+    public int[] unpackValid() {
+        return this.generator.unpack(this.validKey, this.salt, SIZES);
+    }
+
+    @Benchmark
+    public int[] unpackValidOwner() {
+        return this.generator.unpack(this.validKey, OWNER, SIZES);
+    }
+
+    @Benchmark
+    public KeyStatus unpackSchema() {
+        return this.generator.unpack(this.validKey, OWNER, this.values);
+    }
+
+    @Benchmark
+    public int[] unpackFormatted() {
+        return this.generator.unpack(this.formattedKey, OWNER, SIZES);
+    }
+
+    @Benchmark
+    public int[] unpackRequestSlice() {
+        return this.generator.unpack(CharBuffer.wrap(this.request, 15, this.formattedKey.length()), OWNER, SIZES);
+    }
+
+    @Benchmark
+    public int[] unpackInvalid() {
+        return this.generator.unpack(this.invalidKey, OWNER, SIZES);
+    }
+
+    @Benchmark
+    public String pack() {
+        return this.generator.pack(VALUES, SIZES, this.keyLength, this.salt, this.passes, false);
+    }
+
+    @Benchmark
+    public byte[] salt() {
+        return SaltCache.digest(OWNER);
+    }
+
+    @Benchmark
+    public byte[] saltCached() {
+        return this.generator.salt(OWNER);
+    }
+
+    @Benchmark
+    public String formatKey() {
+        return this.generator.formatKey(this.validKey, 5);
+    }
+
+    @Benchmark
+    public ProductKeySignature randomize() {
+        this.randomized.randomize(bitsToHide(), this.keyLength);
+        return this.randomized.getSignature();
+    }
+
+    /**
+     * Run the benchmarks with the GC profiler.
+     *
+     * @param args nothing
+     * @throws RunnerException in case of...
+     */
+    public static void main(final String... args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ProductKeyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.wima.licencekey;
+
+/**
+ * An encryption manager telling the algorithm of its signatures, so that it is recorded in the licences (see
+ * {@link SignatureAlgorithm}). The licences of the other encryption managers are RSA ones.
+ *
+ * @author Mathieu POUSSE
+ */
+public interface AlgorithmAwareEncryptionManager extends LicenceEncryptionManager {
+
+    /**
+     * Gets the algorithm of the loaded keys.
+     *
+     * @return see description, null if not loaded
+     */
+    SignatureAlgorithm getAlgorithm();
+
+    /**
+     * Check the content against a signature made with the specified algorithm.
+     *
+     * @param algorithm the algorithm of the signature
+     * @param content   the signed data
+     * @param signature the signature
+     * @return true if valid, false as well if the loaded keys are of another algorithm
+     */
+    boolean verify(final SignatureAlgorithm algorithm, final byte[] content, final byte[] signature);
+
+    /**
+     * Sign the given data, recording the algorithm of the signature.
+     *
+     * @param data the the data to be signed.
+     * @return the data, its signature and the algorithm, all made with the same keys.
+     */
+    ProductLicenceCodec.Envelope signEnvelope(final byte[] data);
+
+}
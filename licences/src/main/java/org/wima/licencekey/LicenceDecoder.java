@@ -0,0 +1,272 @@
+package org.wima.licencekey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Extracts the licences from a text (a licence file, a bundle of licences, a request body...) in a single pass.
+ * <p/>
+ * The text is read through a small buffer and scanned for the {@link LicenceManager#LICENCE_START} marker; the body
+ * that follows is base64 decoded and un-XORed character after character into a buffer reused from one licence to the
+ * next, until the {@link LicenceManager#LICENCE__END_} marker. No line nor intermediate string is ever built. The
+ * text around the licences is ignored, only its ASCII characters can be part of a marker.
+ * <pre>
+ * LicenceDecoder decoder = new LicenceDecoder(channel);
+ * while (decoder.next()) {
+ *     ProductLicence licence = licenceManager.loadLicence(decoder);
+ * }
+ * </pre>
+ * A decoder is not thread safe.
+ *
+ * @author Mathieu POUSSE
+ */
+public final class LicenceDecoder {
+
+    /**
+     * The value XORed with each byte of the licence.
+     */
+    static final byte MASK = 38;
+
+    /**
+     * The value of each base64 character, -1 for the characters ignored (white spaces) and -2 for the others.
+     */
+    private static final byte[] BASE64 = new byte[128];
+
+    static {
+        Arrays.fill(BASE64, (byte) -2);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte) i;
+        }
+        BASE64[' '] = -1;
+        BASE64['\t'] = -1;
+        BASE64['\r'] = -1;
+        BASE64['\n'] = -1;
+    }
+
+    private static final Marker START = new Marker(LicenceManager.LICENCE_START);
+
+    private static final Marker END = new Marker(LicenceManager.LICENCE__END_);
+
+    /**
+     * Where the text is read from, null if the text is a char sequence.
+     */
+    private final ReadableByteChannel channel;
+
+    private final ByteBuffer input;
+
+    private final CharSequence text;
+
+    private int textPosition;
+
+    /**
+     * The decoded licence.
+     */
+    private byte[] output = new byte[1024];
+
+    private int length;
+
+    /**
+     * Create a decoder reading the specified channel.
+     *
+     * @param channel the text
+     */
+    public LicenceDecoder(final ReadableByteChannel channel) {
+        this.channel = channel;
+        this.input = ByteBuffer.allocate(8 * 1024);
+        this.input.flip();
+        this.text = null;
+    }
+
+    /**
+     * Create a decoder reading the specified stream.
+     *
+     * @param stream the text
+     */
+    public LicenceDecoder(final InputStream stream) {
+        this(Channels.newChannel(stream));
+    }
+
+    /**
+     * Create a decoder reading the specified text.
+     *
+     * @param text the text
+     */
+    public LicenceDecoder(final CharSequence text) {
+        this.channel = null;
+        this.input = null;
+        this.text = text;
+    }
+
+    /**
+     * Returns the next character of the text.
+     *
+     * @return see description, -1 at the end of the text
+     * @throws IOException if the text cannot be read
+     */
+    private int read() throws IOException {
+        if (this.text != null) {
+            return this.textPosition < this.text.length() ? this.text.charAt(this.textPosition++) : -1;
+        }
+        while (!this.input.hasRemaining()) {
+            this.input.clear();
+            int count = this.channel.read(this.input);
+            this.input.flip();
+            if (count < 0) {
+                return -1;
+            }
+        }
+        return this.input.get() & 0xFF;
+    }
+
+    /**
+     * Decode the next licence of the text.
+     *
+     * @return false if there is no more licence
+     * @throws IOException if the text cannot be read or if the licence is malformed
+     */
+    public boolean next() throws IOException {
+        this.length = 0;
+        // look for the start marker, and skip the end of its line
+        int matched = 0;
+        int c;
+        while (matched < START.length()) {
+            if ((c = read()) < 0) {
+                return false;
+            }
+            matched = START.advance(matched, c);
+        }
+        while ((c = read()) >= 0 && c != '\n') {
+            // skipped
+        }
+
+        // decode the body, which ends with a character out of the base64 alphabet: the start of the end marker
+        int quantum = 0;
+        int sextets = 0;
+        while (true) {
+            if ((c = read()) < 0) {
+                throw new IOException("the licence end marker is missing");
+            }
+            int value = c < BASE64.length ? BASE64[c] : -2;
+            if (value == -1) {
+                continue;
+            }
+            if (value == -2) {
+                break;
+            }
+            quantum = (quantum << 6) | value;
+            if (++sextets == 4) {
+                write(quantum >>> 16);
+                write(quantum >>> 8);
+                write(quantum);
+                quantum = 0;
+                sextets = 0;
+            }
+        }
+
+        // the padding, if any
+        int padding = 0;
+        while (c == '=' || (c >= 0 && c < BASE64.length && BASE64[c] == -1)) {
+            if (c == '=') {
+                padding++;
+            }
+            c = read();
+        }
+        if (sextets == 1 || (padding > 0 && sextets + padding != 4)) {
+            throw new IOException("malformed licence body");
+        }
+        if (sextets == 2) {
+            write(quantum >>> 4);
+        } else if (sextets == 3) {
+            write(quantum >>> 10);
+            write(quantum >>> 2);
+        }
+
+        // the end marker must be on the line ending the body
+        matched = END.advance(0, c);
+        while (matched < END.length()) {
+            if ((c = read()) < 0 || c == '\n') {
+                throw new IOException("malformed licence body");
+            }
+            matched = END.advance(matched, c);
+        }
+        return true;
+    }
+
+    private void write(final int b) {
+        if (this.length == this.output.length) {
+            this.output = Arrays.copyOf(this.output, this.output.length * 2);
+        }
+        this.output[this.length++] = (byte) (b ^ MASK);
+    }
+
+    /**
+     * Returns the buffer holding the licence decoded by {@link #next()}, overwritten by the next one.
+     *
+     * @return see description, the licence being the {@link #length()} first bytes
+     */
+    public byte[] buffer() {
+        return this.output;
+    }
+
+    /**
+     * Returns the size of the licence decoded by {@link #next()}.
+     *
+     * @return see description
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * A text to look for, one character at a time (Knuth-Morris-Pratt).
+     */
+    private static final class Marker {
+
+        private final String marker;
+
+        /**
+         * For each prefix length, the length of its longest proper prefix that is also a suffix.
+         */
+        private final int[] fallback;
+
+        Marker(final String marker) {
+            this.marker = marker;
+            this.fallback = new int[marker.length() + 1];
+            int k = 0;
+            for (int i = 1; i < marker.length(); i++) {
+                while (k > 0 && marker.charAt(i) != marker.charAt(k)) {
+                    k = this.fallback[k];
+                }
+                if (marker.charAt(i) == marker.charAt(k)) {
+                    k++;
+                }
+                this.fallback[i + 1] = k;
+            }
+        }
+
+        int length() {
+            return this.marker.length();
+        }
+
+        /**
+         * Returns the number of marker characters matched once the character is read.
+         *
+         * @param matched the number of marker characters matched so far
+         * @param c       the character read
+         * @return see description
+         */
+        int advance(final int matched, final int c) {
+            int k = matched;
+            while (k > 0 && this.marker.charAt(k) != c) {
+                k = this.fallback[k];
+            }
+            return this.marker.charAt(k) == c ? k + 1 : 0;
+        }
+    }
+
+}
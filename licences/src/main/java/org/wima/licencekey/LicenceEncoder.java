@@ -0,0 +1,261 @@
+package org.wima.licencekey;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes licences as text in a single pass: each byte is XORed and base64 encoded straight into the current line,
+ * which is written to the output as soon as it is full. Neither the whole base64 text nor a copy of the licence is
+ * built.
+ * <pre>
+ * encoder.begin();
+ * encoder.write(header);
+ * encoder.write(signature);
+ * encoder.write(licence);
+ * encoder.end();
+ * </pre>
+ * Outputs writing bytes are buffered: call {@link #flush()} once done. An encoder is not thread safe.
+ *
+ * @author Mathieu POUSSE
+ */
+public final class LicenceEncoder {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] START = (LicenceManager.LICENCE_START + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] END = (LicenceManager.LICENCE__END_ + "\n\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The number of characters per line of base64.
+     */
+    private static final int LINE_LENGTH = LicenceManager.LICENCE_START.length();
+
+    private final Sink sink;
+
+    /**
+     * The line being encoded, with room for its line feed.
+     */
+    private final byte[] line = new byte[LINE_LENGTH + 1];
+
+    private int lineLength;
+
+    /**
+     * The bytes waiting for a complete 3 bytes group.
+     */
+    private int pending;
+
+    private int pendingCount;
+
+    /**
+     * Create an encoder writing characters.
+     *
+     * @param output the output
+     */
+    public LicenceEncoder(final Appendable output) {
+        this.sink = new AppendableSink(output);
+    }
+
+    /**
+     * Create an encoder writing ASCII bytes.
+     *
+     * @param output the output
+     */
+    public LicenceEncoder(final OutputStream output) {
+        this.sink = new BufferedSink() {
+            @Override
+            void drain(final ByteBuffer buffer) throws IOException {
+                output.write(buffer.array(), 0, buffer.limit());
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                output.flush();
+            }
+        };
+    }
+
+    /**
+     * Create an encoder writing ASCII bytes.
+     *
+     * @param output the output
+     */
+    public LicenceEncoder(final WritableByteChannel output) {
+        this.sink = new BufferedSink() {
+            @Override
+            void drain(final ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts a licence.
+     *
+     * @throws IOException if the output fails
+     */
+    public void begin() throws IOException {
+        this.lineLength = 0;
+        this.pending = 0;
+        this.pendingCount = 0;
+        this.sink.write(START, START.length);
+    }
+
+    /**
+     * Encode licence bytes.
+     *
+     * @param data the bytes
+     * @throws IOException if the output fails
+     */
+    public void write(final byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Encode licence bytes.
+     *
+     * @param data   the bytes
+     * @param offset the first byte
+     * @param length the number of bytes
+     * @throws IOException if the output fails
+     */
+    public void write(final byte[] data, final int offset, final int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            this.pending = (this.pending << 8) | ((data[i] ^ LicenceDecoder.MASK) & 0xFF);
+            if (++this.pendingCount == 3) {
+                character(this.pending >>> 18);
+                character(this.pending >>> 12);
+                character(this.pending >>> 6);
+                character(this.pending);
+                this.pending = 0;
+                this.pendingCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Ends the licence: writes the last bytes, with their padding, and the end marker.
+     *
+     * @throws IOException if the output fails
+     */
+    public void end() throws IOException {
+        if (this.pendingCount == 1) {
+            character(this.pending >>> 2);
+            character(this.pending << 4);
+            padding();
+            padding();
+        } else if (this.pendingCount == 2) {
+            character(this.pending >>> 10);
+            character(this.pending >>> 4);
+            character(this.pending << 2);
+            padding();
+        }
+        if (this.lineLength > 0) {
+            this.line[this.lineLength++] = '\n';
+            this.sink.write(this.line, this.lineLength);
+            this.lineLength = 0;
+        }
+        this.sink.write(END, END.length);
+    }
+
+    /**
+     * Write the buffered text to the output, and flush it.
+     *
+     * @throws IOException if the output fails
+     */
+    public void flush() throws IOException {
+        this.sink.flush();
+    }
+
+    private void character(final int sextet) throws IOException {
+        append(ALPHABET[sextet & 0x3F]);
+    }
+
+    private void padding() throws IOException {
+        append((byte) '=');
+    }
+
+    private void append(final byte c) throws IOException {
+        this.line[this.lineLength++] = c;
+        if (this.lineLength == LINE_LENGTH) {
+            this.line[this.lineLength++] = '\n';
+            this.sink.write(this.line, this.lineLength);
+            this.lineLength = 0;
+        }
+    }
+
+    /**
+     * Where the text is written.
+     */
+    private interface Sink extends Flushable {
+
+        /**
+         * Writes ASCII characters.
+         *
+         * @param text   the characters
+         * @param length the number of characters
+         * @throws IOException if the output fails
+         */
+        void write(byte[] text, int length) throws IOException;
+    }
+
+    private static final class AppendableSink implements Sink {
+
+        private final Appendable output;
+
+        AppendableSink(final Appendable output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(final byte[] text, final int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                this.output.append((char) text[i]);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.output instanceof Flushable) {
+                ((Flushable) this.output).flush();
+            }
+        }
+    }
+
+    /**
+     * Gathers the text in a buffer drained when full.
+     */
+    private abstract static class BufferedSink implements Sink {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+
+        abstract void drain(ByteBuffer buffer) throws IOException;
+
+        @Override
+        public void write(final byte[] text, final int length) throws IOException {
+            if (this.buffer.remaining() < length) {
+                flushBuffer();
+            }
+            this.buffer.put(text, 0, length);
+        }
+
+        private void flushBuffer() throws IOException {
+            this.buffer.flip();
+            drain(this.buffer);
+            this.buffer.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+    }
+
+}
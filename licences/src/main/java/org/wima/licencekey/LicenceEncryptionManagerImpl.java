@@ -3,10 +3,10 @@ package org.wima.licencekey;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
 
 /**
  * This class handles the licence ciphering / deciphering.
@@ -24,20 +24,74 @@ import java.security.spec.X509EncodedKeySpec;
  * Extract the public key, fur publishing.
  *   $ openssl rsa -in private-key.pem -out public-key.der -pubout -outform DER
  * </pre>
+ * ECDSA P-256 and Ed25519 keys are accepted as well (see {@link SignatureAlgorithm}), the algorithm being the one of
+ * the public key.
  *
  * @author Mathieu POUSSE
  */
-public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
+public class LicenceEncryptionManagerImpl implements AlgorithmAwareEncryptionManager {
 
     /**
-     * The public key shipped with the application.
+     * The loaded keys, replaced as a whole by {@link #load(byte[], byte[])}.
      */
-    private PublicKey publicKey;
+    private volatile Keys keys;
 
     /**
-     * Our private key, only available internally.
+     * An immutable pair of keys, with the signatures initialized with them.
+     * <p/>
+     * A {@link Signature} is not thread safe but returns to its initialized state once used, so each thread keeps its
+     * own. The signatures belong to the keys: loading other keys publishes a new instance, and the signatures
+     * initialized with the previous keys are no longer reachable.
      */
-    private PrivateKey privateKey;
+    private static final class Keys {
+
+        /**
+         * The algorithm of the keys.
+         */
+        private final SignatureAlgorithm algorithm;
+
+        /**
+         * The public key shipped with the application.
+         */
+        private final PublicKey publicKey;
+
+        /**
+         * Our private key, only available internally (null otherwise).
+         */
+        private final PrivateKey privateKey;
+
+        private final ThreadLocal<Signature> verifiers = new ThreadLocal<Signature>() {
+            @Override
+            protected Signature initialValue() {
+                try {
+                    Signature signature = Keys.this.algorithm.newSignature();
+                    signature.initVerify(Keys.this.publicKey);
+                    return signature;
+                } catch (InvalidKeyException e) {
+                    throw new SecurityException("invalid public key", e);
+                }
+            }
+        };
+
+        private final ThreadLocal<Signature> signers = new ThreadLocal<Signature>() {
+            @Override
+            protected Signature initialValue() {
+                try {
+                    Signature signature = Keys.this.algorithm.newSignature();
+                    signature.initSign(Keys.this.privateKey);
+                    return signature;
+                } catch (InvalidKeyException e) {
+                    throw new SecurityException("invalid private key", e);
+                }
+            }
+        };
+
+        Keys(final SignatureAlgorithm algorithm, final PublicKey publicKey, final PrivateKey privateKey) {
+            this.algorithm = algorithm;
+            this.publicKey = publicKey;
+            this.privateKey = privateKey;
+        }
+    }
 
     /**
      * Flush the input stream to a byte array.
@@ -62,34 +116,6 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
         return buffer.toByteArray();
     }
 
-    /**
-     * Create a key factory instance with the specified algorithm.
-     *
-     * @param algorithm the algorithm
-     * @return the key factory
-     */
-    private KeyFactory safeGetKeyFactory(final String algorithm) {
-        try {
-            return KeyFactory.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalArgumentException(algorithm + " implementation is missing");
-        }
-    }
-
-    /**
-     * Create a signature instance with the specified algorithm.
-     *
-     * @param algorithm the algoritm
-     * @return the signature
-     */
-    private Signature safeGetSignature(final String algorithm) {
-        try {
-            return Signature.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalArgumentException(algorithm + " implementation is missing");
-        }
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -125,6 +151,21 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
 
     }
 
+    /**
+     * Loads the public and private keys from DER files of the local file system (for instance to sign licences
+     * offline).
+     *
+     * @param publicKeyFile  the file containing the public key
+     * @param privateKeyFile the file containing the private key (null if not available)
+     */
+    public void load(final Path publicKeyFile, final Path privateKeyFile) {
+        try {
+            load(Files.readAllBytes(publicKeyFile), privateKeyFile == null ? null : Files.readAllBytes(privateKeyFile));
+        } catch (IOException e) {
+            throw new SecurityException("invalid keys", e);
+        }
+    }
+
     /**
      * Load the publicKey.
      *
@@ -136,7 +177,7 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
     }
 
     /**
-     * Loads the public and private key if available.
+     * Loads the public and private key if available, the signature algorithm being the one of the public key.
      *
      * @param publicKey  the public key (can't be null).
      * @param privateKey the private key (null if not available).
@@ -145,17 +186,51 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
         if (publicKey == null) {
             throw new IllegalArgumentException("publicKey cannot be null");
         }
-        try {
-            X509EncodedKeySpec spec = new X509EncodedKeySpec(publicKey);
-            this.publicKey = safeGetKeyFactory("RSA").generatePublic(spec);
-
-            if (privateKey != null) {
-                PKCS8EncodedKeySpec privateSpec = new PKCS8EncodedKeySpec(privateKey);
-                this.privateKey = safeGetKeyFactory("RSA").generatePrivate(privateSpec);
+        for (final SignatureAlgorithm algorithm : SignatureAlgorithm.values()) {
+            if (!algorithm.isAvailable()) {
+                continue;
+            }
+            PublicKey loadedPublicKey;
+            try {
+                loadedPublicKey = algorithm.publicKey(publicKey);
+            } catch (InvalidKeySpecException e) {
+                // not a key of this algorithm
+                continue;
+            }
+            try {
+                Keys previous = this.keys;
+                // the private key of another algorithm would only make licences that cannot be checked
+                PrivateKey loadedPrivateKey = previous == null || previous.algorithm != algorithm ? null : previous.privateKey;
+                if (privateKey != null) {
+                    loadedPrivateKey = algorithm.privateKey(privateKey);
+                }
+                this.keys = new Keys(algorithm, loadedPublicKey, loadedPrivateKey);
+                return;
+            } catch (InvalidKeySpecException e) {
+                throw new SecurityException("invalid private key", e);
             }
-        } catch (InvalidKeySpecException e) {
-            throw new SecurityException("invalid keys", e);
         }
+        throw new SecurityException("invalid keys", new InvalidKeySpecException("not a key of a supported algorithm"));
+    }
+
+    /**
+     * Gets the public key the signatures are checked with. Loading keys replaces the instance, so comparing the
+     * instances tells whether the keys changed.
+     *
+     * @return see description, null if not loaded
+     */
+    public PublicKey getPublicKey() {
+        Keys current = this.keys;
+        return current == null ? null : current.publicKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SignatureAlgorithm getAlgorithm() {
+        Keys current = this.keys;
+        return current == null ? null : current.algorithm;
     }
 
     /**
@@ -163,18 +238,32 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
      */
     @Override
     public boolean verify(final byte[] content, final byte[] signature) {
-        try {
-            // Initialize the signing algorithm with our public key
-            Signature rsaSignature = safeGetSignature("SHA1withRSA");
-            rsaSignature.initVerify(this.publicKey);
+        Keys current = this.keys;
+        return current != null && verify(current, content, signature);
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean verify(final SignatureAlgorithm algorithm, final byte[] content, final byte[] signature) {
+        Keys current = this.keys;
+        // no public key of this algorithm, nothing can be trusted
+        return current != null && current.algorithm == algorithm && verify(current, content, signature);
+    }
+
+    private static boolean verify(final Keys current, final byte[] content, final byte[] signature) {
+        // already initialized with our public key
+        Signature verifier = current.verifiers.get();
+        try {
             // Update the signature algorithm with the data.
-            rsaSignature.update(content);
+            verifier.update(content);
 
             // Validate the signature
-            return rsaSignature.verify(signature);
-        } catch (InvalidKeyException | SignatureException e) {
-            // something went wrong...
+            return verifier.verify(signature);
+        } catch (SignatureException e) {
+            // something went wrong... the signature may be left half way, start over with a new one
+            current.verifiers.remove();
             return false;
         }
 
@@ -185,19 +274,35 @@ public class LicenceEncryptionManagerImpl implements LicenceEncryptionManager {
      */
     @Override
     public byte[] sign(final byte[] data) {
-        if (this.privateKey == null) {
+        Keys current = this.keys;
+        if (current == null || current.privateKey == null) {
+            throw new IllegalArgumentException("cannot sign the licence (private-key is missing)");
+        }
+        return sign(current, data);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ProductLicenceCodec.Envelope signEnvelope(final byte[] data) {
+        Keys current = this.keys;
+        if (current == null || current.privateKey == null) {
             throw new IllegalArgumentException("cannot sign the licence (private-key is missing)");
         }
+        return new ProductLicenceCodec.Envelope(current.algorithm, sign(current, data), data);
+    }
 
+    private static byte[] sign(final Keys current, final byte[] data) {
+        // already initialized with our private key
+        Signature signer = current.signers.get();
         try {
-            // Initialize the signing algorithm with our private key
-            Signature rsaSignature = safeGetSignature("SHA1withRSA");
-            rsaSignature.initSign(this.privateKey);
-            rsaSignature.update(data);
+            signer.update(data);
 
             // Generate the signature.
-            return rsaSignature.sign();
-        } catch (SignatureException | InvalidKeyException e) {
+            return signer.sign();
+        } catch (SignatureException e) {
+            current.signers.remove();
             throw new SecurityException(e);
         }
     }
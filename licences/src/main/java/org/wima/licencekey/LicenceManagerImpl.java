@@ -2,14 +2,22 @@ package org.wima.licencekey;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import javax.xml.bind.DatatypeConverter;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class can read and write the licence files.
@@ -18,13 +26,20 @@ import java.util.regex.Pattern;
  */
 public class LicenceManagerImpl implements LicenceManager {
 
-    private static final Pattern LICENCE_START_PATTERN = Pattern.compile(LICENCE_START);
-
-    private static final Pattern LICENCE__END__PATTERN = Pattern.compile(LICENCE__END_);
-
     @Resource
     private LicenceEncryptionManager encryptionManager;
 
+    /**
+     * The number of licences signed in advance by {@link #saveLicences}, so that a slow output stops the signing
+     * instead of piling up signed licences in memory.
+     */
+    public static final int SIGNING_WINDOW = 1024;
+
+    /**
+     * The licences already checked, null to check every licence.
+     */
+    private volatile VerifiedLicenceCache cache = new VerifiedLicenceCache();
+
     /**
      * This is triggered when the application is loaded. It will try load the public / private keys if any.
      *
@@ -40,18 +55,6 @@ public class LicenceManagerImpl implements LicenceManager {
         this.encryptionManager.load("/public-key.der", "/private-key.der");
     }
 
-    /**
-     * Apply the specified XOR on the table.
-     *
-     * @param table  the table to XORify
-     * @param offset the offest
-     */
-    private void xor(final byte[] table, final byte offset) {
-        for (int i = 0; i < table.length; i++) {
-            table[i] ^= offset;
-        }
-    }
-
 
     /**
      * Load a licence file and return it.
@@ -64,78 +67,153 @@ public class LicenceManagerImpl implements LicenceManager {
      * @throws java.security.NoSuchAlgorithmException in case of...
      */
     public ProductLicence loadLicence(final File licenceFile) {
-        try {
-            byte[] buffer = LicenceEncryptionManagerImpl.toByteArray(new FileInputStream(licenceFile));
-            return loadLicence(new String(buffer, "UTF-8"));
+        try (FileChannel channel = FileChannel.open(licenceFile.toPath(), StandardOpenOption.READ)) {
+            return loadLicence(channel);
         } catch (IOException e) {
             throw new SecurityException("licence error", e);
         }
     }
 
     /**
-     * {@inheritDoc}
+     * Load the first licence of a stream, without building the text in memory.
+     *
+     * @param stream the stream containing the licence
+     * @return the licence information, null if the signature is not valid
      */
-    @Override
-    public ProductLicence loadLicence(final String stringified) {
-        try {
-            List<String> content = new ArrayList<>();
-            BufferedReader reader = new BufferedReader(new StringReader(stringified));
-            String l = null;
-            while ((l = reader.readLine()) != null) {
-                content.add(l);
-            }
-            StringBuilder base64Content = new StringBuilder();
-            boolean hasStarted = false;
-            for (final String line : content) {
-                if (!hasStarted && LICENCE_START_PATTERN.matcher(line).find()) {
-                    hasStarted = true;
-                    continue;
-                }
-                if (hasStarted) {
-                    if (LICENCE__END__PATTERN.matcher(line).find()) {
-                        break;
-                    }
-                    base64Content.append(line);
-                }
-            }
-
-            byte[] serialized = DatatypeConverter.parseBase64Binary(base64Content.toString());
-            xor(serialized, (byte) 38);
-
-            int signatureLength = 0;
-            byte[] signature;
-            byte[] licence;
+    public ProductLicence loadLicence(final InputStream stream) {
+        return loadFirstLicence(new LicenceDecoder(stream));
+    }
 
-            ObjectInputStream deserializer = new ObjectInputStream(new ByteArrayInputStream(serialized));
-            try {
-                signatureLength = deserializer.readInt();
-                signature = new byte[signatureLength];
-                deserializer.read(signature);
-                licence = new byte[deserializer.available()];
-                deserializer.read(licence);
+    /**
+     * Load the first licence of a channel, without building the text in memory.
+     *
+     * @param channel the channel containing the licence
+     * @return the licence information, null if the signature is not valid
+     */
+    public ProductLicence loadLicence(final ReadableByteChannel channel) {
+        return loadFirstLicence(new LicenceDecoder(channel));
+    }
 
-            } finally {
-                deserializer.close();
+    private ProductLicence loadFirstLicence(final LicenceDecoder decoder) {
+        try {
+            if (!decoder.next()) {
+                throw new IOException("no licence found");
             }
+        } catch (IOException e) {
+            throw new SecurityException("licence error", e);
+        }
+        return loadLicence(decoder);
+    }
 
-            if (!this.encryptionManager.verify(licence, signature)) {
+    /**
+     * Check the licence last decoded and return it.
+     *
+     * @param decoder the decoder, positioned on a licence by {@link LicenceDecoder#next()}
+     * @return the licence information, null if the signature is not valid
+     */
+    public ProductLicence loadLicence(final LicenceDecoder decoder) {
+        try {
+            // licences written before the binary format are still read
+            ProductLicenceCodec.Envelope envelope = ProductLicenceCodec.decodeEnvelope(decoder.buffer(), decoder.length());
+            if (!verify(envelope)) {
                 // invalid licence
                 return null;
             }
-
-            try {
-                deserializer = new ObjectInputStream(new ByteArrayInputStream(licence));
-                return (ProductLicence) deserializer.readObject();
-            } catch (ClassNotFoundException e) {
-                throw new IllegalArgumentException("hum...");
-            } finally {
-                deserializer.close();
-            }
-
+            return ProductLicenceCodec.decode(envelope.getLicence());
         } catch (IOException e) {
             throw new SecurityException("licence error", e);
         }
+    }
+
+    /**
+     * Check the signature of a licence with the algorithm it was signed with.
+     *
+     * @param envelope the signed licence
+     * @return true if valid
+     */
+    private boolean verify(final ProductLicenceCodec.Envelope envelope) {
+        LicenceEncryptionManager current = this.encryptionManager;
+        if (current instanceof AlgorithmAwareEncryptionManager) {
+            return ((AlgorithmAwareEncryptionManager) current).verify(envelope.getAlgorithm(), envelope.getLicence(), envelope.getSignature());
+        }
+        // the other encryption managers only check RSA signatures
+        return envelope.getAlgorithm() == SignatureAlgorithm.RSA && current.verify(envelope.getLicence(), envelope.getSignature());
+    }
+
+    /**
+     * Sets the encryption manager (when not injected), for instance one loaded with local keys to sign licences
+     * offline.
+     *
+     * @param encryptionManager the encryption manager
+     */
+    public void setEncryptionManager(final LicenceEncryptionManager encryptionManager) {
+        this.encryptionManager = encryptionManager;
+    }
+
+    /**
+     * Sets the cache of the licences already checked. It is only used along with a
+     * {@link LicenceEncryptionManagerImpl}, the licences being checked every time with another encryption manager.
+     *
+     * @param cache the cache (null to check every licence)
+     */
+    public void setCache(final VerifiedLicenceCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the cache of the licences already checked.
+     *
+     * @return see description, null if every licence is checked
+     */
+    public VerifiedLicenceCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * A licence already checked with the current public key is served from the cache, without being decoded again.
+     */
+    @Override
+    public ProductLicence loadLicence(final String stringified) {
+        VerifiedLicenceCache verified = this.cache;
+        PublicKey publicKey = publicKey();
+        if (verified == null || publicKey == null) {
+            return verifyLicence(stringified);
+        }
+        ByteBuffer digest = VerifiedLicenceCache.digest(stringified);
+        VerifiedLicenceCache.Verification verification = verified.get(digest, publicKey);
+        if (verification != null) {
+            return verification.getLicence();
+        }
+        ProductLicence licence = verifyLicence(stringified);
+        verified.put(digest, publicKey, licence);
+        return licence;
+    }
+
+    /**
+     * Returns the public key of the encryption manager, which identifies the keys the cached licences were checked
+     * with. Only a {@link LicenceEncryptionManagerImpl} tells it: the licences are not cached with another encryption
+     * manager, as there is no way to know when its keys change.
+     *
+     * @return see description, null if unknown
+     */
+    private PublicKey publicKey() {
+        LicenceEncryptionManager current = this.encryptionManager;
+        if (current instanceof LicenceEncryptionManagerImpl) {
+            return ((LicenceEncryptionManagerImpl) current).getPublicKey();
+        }
+        return null;
+    }
 
+    /**
+     * Decode a licence and check its signature.
+     *
+     * @param stringified the licence text
+     * @return the licence, null if the signature is not valid
+     */
+    private ProductLicence verifyLicence(final String stringified) {
+        return loadFirstLicence(new LicenceDecoder(stringified));
     }
 
     /**
@@ -143,40 +221,149 @@ public class LicenceManagerImpl implements LicenceManager {
      */
     @Override
     public String saveLicence(final ProductLicence toWrite) {
+        StringBuilder builder = new StringBuilder(1024);
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream serializer = new ObjectOutputStream(baos);
-            serializer.writeObject(toWrite);
-            serializer.close();
-            byte[] licence = baos.toByteArray();
-            byte[] signature = this.encryptionManager.sign(licence);
+            write(sign(toWrite), new LicenceEncoder(builder));
+        } catch (IOException e) {
+            // cannot happen with a string builder
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
 
-            baos = new ByteArrayOutputStream();
-            serializer = new ObjectOutputStream(baos);
+    /**
+     * Sign a licence and write it to the encoder output, without building its text.
+     *
+     * @param toWrite the licence to sign
+     * @param output  receives the signed licence
+     * @throws IOException if the output fails
+     */
+    public void saveLicence(final ProductLicence toWrite, final LicenceEncoder output) throws IOException {
+        write(sign(toWrite), output);
+    }
 
-            serializer.writeInt(signature.length);
-            serializer.write(signature);
-            serializer.write(licence);
-            serializer.close();
+    /**
+     * Sign a licence.
+     *
+     * @param toWrite the licence to sign
+     * @return the licence bytes and their signature
+     */
+    private ProductLicenceCodec.Envelope sign(final ProductLicence toWrite) {
+        try {
+            byte[] licence = ProductLicenceCodec.encode(toWrite);
+            LicenceEncryptionManager current = this.encryptionManager;
+            if (current instanceof AlgorithmAwareEncryptionManager) {
+                return ((AlgorithmAwareEncryptionManager) current).signEnvelope(licence);
+            }
+            return new ProductLicenceCodec.Envelope(SignatureAlgorithm.RSA, current.sign(licence), licence);
+        } catch (Exception e) {
+            throw new SecurityException("licence error", e);
+        }
+    }
 
-            licence = baos.toByteArray();
-            xor(licence, (byte) 38);
+    /**
+     * Write a signed licence, the envelope being encoded part after part.
+     *
+     * @param envelope the signed licence
+     * @param output   receives the licence text
+     * @throws IOException if the output fails
+     */
+    private static void write(final ProductLicenceCodec.Envelope envelope, final LicenceEncoder output) throws IOException {
+        output.begin();
+        output.write(ProductLicenceCodec.envelopeHeader(envelope.getAlgorithm(), envelope.getSignature().length));
+        output.write(envelope.getSignature());
+        output.write(envelope.getLicence());
+        output.end();
+    }
 
+    /**
+     * Sign a batch of licences using all the available cores, as {@link #saveLicences(Iterator, Writer, ExecutorService)}
+     * does.
+     *
+     * @param licences the licences to sign
+     * @param output   receives the signed licences, in the order of the licences
+     * @return the signing statistics
+     * @throws IOException if the output fails
+     */
+    public SigningReport saveLicences(final Iterator<ProductLicence> licences, final Writer output) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return saveLicences(licences, output, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
 
-            String encoded = DatatypeConverter.printBase64Binary((licence));
-            Matcher lines = Pattern.compile(".{1," + LICENCE_START.length() + "}").matcher(encoded);
+    /**
+     * Sign a batch of licences on the given executor. Each worker thread signs with its own signature instance; the
+     * signed licences are written in the order of the licences, at most {@link #SIGNING_WINDOW} of them being signed
+     * in advance of the output.
+     *
+     * @param licences the licences to sign
+     * @param output   receives the signed licences, in the order of the licences
+     * @param executor signs the licences
+     * @return the signing statistics
+     * @throws IOException if the output fails
+     */
+    public SigningReport saveLicences(final Iterator<ProductLicence> licences, final Writer output, final ExecutorService executor) throws IOException {
+        return saveLicences(licences, new LicenceEncoder(output), executor);
+    }
 
-            StringBuilder builder = new StringBuilder();
-            // output the licence
-            builder.append(LICENCE_START).append("\n");
-            while (lines.find()) {
-                builder.append(lines.group()).append("\n");
+    /**
+     * Sign a batch of licences on the given executor, as {@link #saveLicences(Iterator, Writer, ExecutorService)} does.
+     * The workers only sign: the licences are encoded straight into the output (for instance a file channel), in
+     * order, which is flushed once done.
+     *
+     * @param licences the licences to sign
+     * @param output   receives the signed licences, in the order of the licences
+     * @param executor signs the licences
+     * @return the signing statistics
+     * @throws IOException if the output fails
+     */
+    public SigningReport saveLicences(final Iterator<ProductLicence> licences, final LicenceEncoder output, final ExecutorService executor) throws IOException {
+        long start = System.nanoTime();
+        long count = 0;
+        Deque<Future<ProductLicenceCodec.Envelope>> window = new ArrayDeque<>(SIGNING_WINDOW);
+        try {
+            while (licences.hasNext() || !window.isEmpty()) {
+                while (window.size() < SIGNING_WINDOW && licences.hasNext()) {
+                    final ProductLicence licence = licences.next();
+                    window.addLast(executor.submit(new Callable<ProductLicenceCodec.Envelope>() {
+                        @Override
+                        public ProductLicenceCodec.Envelope call() {
+                            return sign(licence);
+                        }
+                    }));
+                }
+                write(signed(window.removeFirst()), output);
+                count++;
             }
-            builder.append(LICENCE__END_).append("\n").append("\n");
+            output.flush();
+        } finally {
+            for (final Future<ProductLicenceCodec.Envelope> pending : window) {
+                pending.cancel(true);
+            }
+        }
+        return new SigningReport(count, System.nanoTime() - start);
+    }
 
-            return builder.toString();
-        } catch (Exception e) {
-            throw new SecurityException("licence error", e);
+    /**
+     * Wait for a licence to be signed.
+     *
+     * @param signing the signing
+     * @return the signed licence
+     */
+    private static ProductLicenceCodec.Envelope signed(final Future<ProductLicenceCodec.Envelope> signing) throws IOException {
+        try {
+            return signing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while signing the licences");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SecurityException("licence error", e.getCause());
         }
     }
 
@@ -0,0 +1,154 @@
+package org.wima.licencekey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the licence read from a file up to date.
+ * <p/>
+ * The directory of the licence file is watched from a background thread: when the file is created, replaced or
+ * modified, it is read and verified again, and the new licence is published. Request threads get the current licence
+ * with {@link #getLicence()}, a single volatile read that never touches the file system. A file that cannot be read or
+ * verified (for instance while it is being written) is ignored and the previous licence remains published.
+ *
+ * @author Mathieu POUSSE
+ */
+public class LicenceWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LicenceWatcher.class);
+
+    private final LicenceManager manager;
+
+    private final Path file;
+
+    private final AtomicReference<ProductLicence> licence = new AtomicReference<>();
+
+    private WatchService watcher;
+
+    private Thread thread;
+
+    /**
+     * Create a watcher, call {@link #start()} to read the licence and watch the file.
+     *
+     * @param manager verifies the licences
+     * @param file    the licence file
+     */
+    public LicenceWatcher(final LicenceManager manager, final Path file) {
+        if (manager == null || file == null) {
+            throw new IllegalArgumentException("manager and file cannot be null");
+        }
+        this.manager = manager;
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * Read the licence and start watching the file.
+     *
+     * @return true if a valid licence was read
+     * @throws IOException if the directory cannot be watched
+     */
+    public synchronized boolean start() throws IOException {
+        if (this.thread != null) {
+            throw new IllegalStateException("the watcher is already started");
+        }
+        Path directory = this.file.getParent();
+        this.watcher = directory.getFileSystem().newWatchService();
+        directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        // registered first, so that a change made while the licence is read is not missed
+        boolean loaded = reload();
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "licence-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return loaded;
+    }
+
+    /**
+     * Gets the current licence. It is shared between the callers and must not be modified.
+     *
+     * @return see description, null if no valid licence has been read
+     */
+    public ProductLicence getLicence() {
+        return this.licence.get();
+    }
+
+    /**
+     * Read and verify the file, and publish the licence if it is valid.
+     *
+     * @return true if the licence has been published
+     */
+    boolean reload() {
+        ProductLicence reloaded;
+        try {
+            reloaded = this.manager.loadLicence(new String(Files.readAllBytes(this.file), StandardCharsets.UTF_8));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            LOGGER.warn("cannot read the licence {}, keeping the current one", this.file, e);
+            return false;
+        }
+        if (reloaded == null) {
+            LOGGER.warn("invalid licence {}, keeping the current one", this.file);
+            return false;
+        }
+        this.licence.set(reloaded);
+        LOGGER.info("licence {} loaded", this.file);
+        return true;
+    }
+
+    /**
+     * Wait for the changes of the licence file until the watcher is closed.
+     */
+    private void watch() {
+        Path name = this.file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = this.watcher.take();
+                boolean changed = false;
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    // the events may have been lost, better read it again
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context());
+                }
+                if (changed) {
+                    reload();
+                }
+                if (!key.reset()) {
+                    LOGGER.error("the directory of the licence {} is no longer watched", this.file);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Stop watching the file, the last licence read remains available.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.watcher != null) {
+            this.watcher.close();
+        }
+    }
+
+}
@@ -0,0 +1,418 @@
+package org.wima.licencekey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+/**
+ * The compact binary format of the licences.
+ * <p/>
+ * <pre>
+ * envelope : 'W' | version (1) | varint signature length | signature | licence               (RSA)
+ *          | 'W' | version (2) | algorithm | varint signature length | signature | licence
+ * licence  : version (1) | flags | [varint owner length | owner (UTF-8)] | [expiry (8 bytes, ms since 1970)]
+ *            | [varint feature count | (varint feature length | feature (UTF-8))*]
+ * </pre>
+ * The algorithm is the identifier of the {@link SignatureAlgorithm} the licence is signed with; RSA envelopes keep the
+ * first version so that the applications already deployed read them. The flags tell which of the owner, the expiry and
+ * the features are present (not null). Licences written before this format are a Java serialization stream: they are
+ * recognized by the stream magic number and still read, but only the classes a licence is made of can be deserialized.
+ *
+ * @author Mathieu POUSSE
+ */
+public final class ProductLicenceCodec {
+
+    /**
+     * The first byte of an envelope.
+     */
+    public static final byte ENVELOPE_MAGIC = 'W';
+
+    /**
+     * The current version of the envelope and licence formats.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * The version of the envelopes recording their signature algorithm.
+     */
+    public static final byte ALGORITHM_VERSION = 2;
+
+    private static final int HAS_OWNER = 1;
+
+    private static final int HAS_EXPIRY = 1 << 1;
+
+    private static final int HAS_FEATURES = 1 << 2;
+
+    /**
+     * The first bytes of a Java serialization stream.
+     */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /**
+     * The classes a serialized licence can contain.
+     */
+    private static final Set<String> SERIALIZABLE = new HashSet<>(Arrays.asList(
+            ProductLicence.class.getName(), Date.class.getName(), String.class.getName(), "[Ljava.lang.String;", "[Ljava.lang.Object;",
+            ArrayList.class.getName(), "java.util.LinkedList", "java.util.Arrays$ArrayList", "java.util.Collections$EmptyList",
+            "java.util.Collections$SingletonList", "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableList", "java.util.Collections$UnmodifiableCollection"));
+
+    private ProductLicenceCodec() {
+        // static only
+    }
+
+    /**
+     * A signed licence: the licence bytes, their signature and the algorithm it was made with.
+     */
+    public static final class Envelope {
+
+        private final SignatureAlgorithm algorithm;
+
+        private final byte[] signature;
+
+        private final byte[] licence;
+
+        /**
+         * Create an envelope.
+         *
+         * @param signature the signature of the licence bytes
+         * @param licence   the licence bytes
+         */
+        public Envelope(final byte[] signature, final byte[] licence) {
+            this(SignatureAlgorithm.RSA, signature, licence);
+        }
+
+        /**
+         * Create an envelope.
+         *
+         * @param algorithm the algorithm of the signature
+         * @param signature the signature of the licence bytes
+         * @param licence   the licence bytes
+         */
+        public Envelope(final SignatureAlgorithm algorithm, final byte[] signature, final byte[] licence) {
+            if (algorithm == null) {
+                throw new IllegalArgumentException("algorithm cannot be null");
+            }
+            this.algorithm = algorithm;
+            this.signature = signature;
+            this.licence = licence;
+        }
+
+        /**
+         * Gets the algorithm of the signature.
+         *
+         * @return see description
+         */
+        public SignatureAlgorithm getAlgorithm() {
+            return this.algorithm;
+        }
+
+        /**
+         * Gets the signature of the licence bytes.
+         *
+         * @return see description
+         */
+        public byte[] getSignature() {
+            return this.signature;
+        }
+
+        /**
+         * Gets the licence bytes.
+         *
+         * @return see description
+         */
+        public byte[] getLicence() {
+            return this.licence;
+        }
+    }
+
+    /**
+     * Encode a licence.
+     *
+     * @param licence the licence
+     * @return see description
+     */
+    public static byte[] encode(final ProductLicence licence) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(VERSION);
+        List<String> features = licence.getFeatures();
+        out.write((licence.getOwner() == null ? 0 : HAS_OWNER)
+                | (licence.getExpireAt() == null ? 0 : HAS_EXPIRY)
+                | (features == null ? 0 : HAS_FEATURES));
+        if (licence.getOwner() != null) {
+            writeString(out, licence.getOwner());
+        }
+        if (licence.getExpireAt() != null) {
+            long time = licence.getExpireAt().getTime();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (time >>> shift));
+            }
+        }
+        if (features != null) {
+            writeVarint(out, features.size());
+            for (final String feature : features) {
+                if (feature == null) {
+                    throw new IllegalArgumentException("a feature cannot be null");
+                }
+                writeString(out, feature);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a licence, whatever its format.
+     *
+     * @param data the licence bytes
+     * @return see description
+     * @throws IOException if the bytes are not a valid licence
+     */
+    public static ProductLicence decode(final byte[] data) throws IOException {
+        if (isSerialized(data)) {
+            return readSerialized(data);
+        }
+        Reader in = new Reader(data, data.length);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported licence version " + version);
+        }
+        int flags = in.readByte();
+        ProductLicence licence = new ProductLicence();
+        if ((flags & HAS_OWNER) != 0) {
+            licence.setOwner(in.readString());
+        }
+        if ((flags & HAS_EXPIRY) != 0) {
+            long time = 0;
+            for (int i = 0; i < 8; i++) {
+                time = (time << 8) | in.readByte();
+            }
+            licence.setExpireAt(new Date(time));
+        }
+        if ((flags & HAS_FEATURES) != 0) {
+            // each feature takes at least a byte
+            int count = in.readLength();
+            List<String> features = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                features.add(in.readString());
+            }
+            licence.setFeatures(features);
+        }
+        if (in.position != data.length) {
+            throw new IOException("trailing bytes after the licence");
+        }
+        return licence;
+    }
+
+    /**
+     * Wrap a licence and its signature.
+     *
+     * @param envelope the signed licence
+     * @return see description
+     */
+    public static byte[] encodeEnvelope(final Envelope envelope) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(envelope.getSignature().length + envelope.getLicence().length + 8);
+        byte[] header = envelopeHeader(envelope.getAlgorithm(), envelope.getSignature().length);
+        out.write(header, 0, header.length);
+        out.write(envelope.getSignature(), 0, envelope.getSignature().length);
+        out.write(envelope.getLicence(), 0, envelope.getLicence().length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the first bytes of an envelope, followed by the signature and then the licence bytes.
+     *
+     * @param algorithm       the algorithm of the signature
+     * @param signatureLength the signature size
+     * @return see description
+     */
+    public static byte[] envelopeHeader(final SignatureAlgorithm algorithm, final int signatureLength) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        out.write(ENVELOPE_MAGIC);
+        if (algorithm == SignatureAlgorithm.RSA) {
+            out.write(VERSION);
+        } else {
+            out.write(ALGORITHM_VERSION);
+            out.write(algorithm.getId());
+        }
+        writeVarint(out, signatureLength);
+        return out.toByteArray();
+    }
+
+    /**
+     * Unwrap a licence and its signature, whatever the envelope format.
+     *
+     * @param data the envelope bytes
+     * @return see description
+     * @throws IOException if the bytes are not a valid envelope
+     */
+    public static Envelope decodeEnvelope(final byte[] data) throws IOException {
+        return decodeEnvelope(data, data.length);
+    }
+
+    /**
+     * Unwrap a licence and its signature, whatever the envelope format.
+     *
+     * @param data   a buffer starting with the envelope bytes
+     * @param length the envelope size
+     * @return see description
+     * @throws IOException if the bytes are not a valid envelope
+     */
+    public static Envelope decodeEnvelope(final byte[] data, final int length) throws IOException {
+        if (length >= 2 && isSerialized(data)) {
+            // the historical envelope: a serialization stream holding the signature length, the signature and the licence
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, 0, length))) {
+                int signatureLength = in.readInt();
+                if (signatureLength < 0 || signatureLength > length) {
+                    throw new IOException("invalid signature length " + signatureLength);
+                }
+                byte[] signature = new byte[signatureLength];
+                in.readFully(signature);
+                return new Envelope(signature, LicenceEncryptionManagerImpl.toByteArray(in));
+            }
+        }
+        Reader in = new Reader(data, length);
+        if (in.readByte() != ENVELOPE_MAGIC) {
+            throw new IOException("not a licence");
+        }
+        int version = in.readByte();
+        SignatureAlgorithm algorithm;
+        if (version == VERSION) {
+            algorithm = SignatureAlgorithm.RSA;
+        } else if (version == ALGORITHM_VERSION) {
+            int id = in.readByte();
+            algorithm = SignatureAlgorithm.byId(id);
+            if (algorithm == null) {
+                throw new IOException("unsupported signature algorithm " + id);
+            }
+        } else {
+            throw new IOException("unsupported envelope version " + version);
+        }
+        int signatureLength = in.readLength();
+        byte[] signature = Arrays.copyOfRange(data, in.position, in.position + signatureLength);
+        return new Envelope(algorithm, signature, Arrays.copyOfRange(data, in.position + signatureLength, length));
+    }
+
+    /**
+     * Returns true if the bytes are a Java serialization stream (licences written before the binary format).
+     *
+     * @param data the bytes
+     * @return see description
+     */
+    public static boolean isSerialized(final byte[] data) {
+        return data.length >= 2 && ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) == SERIALIZATION_MAGIC;
+    }
+
+    /**
+     * Deserialize a licence written before the binary format, refusing any class a licence is not made of.
+     *
+     * @param data the serialized licence
+     * @return see description
+     * @throws IOException if the bytes are not a serialized licence
+     */
+    private static ProductLicence readSerialized(final byte[] data) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            protected Class<?> resolveClass(final ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+                if (!SERIALIZABLE.contains(descriptor.getName())) {
+                    throw new InvalidClassException(descriptor.getName(), "not part of a licence");
+                }
+                return super.resolveClass(descriptor);
+            }
+        }) {
+            Object licence = in.readObject();
+            if (!(licence instanceof ProductLicence)) {
+                throw new IOException("not a licence");
+            }
+            return (ProductLicence) licence;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("not a licence", e);
+        }
+    }
+
+    private static void writeString(final ByteArrayOutputStream out, final String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Write an unsigned integer, 7 bits per byte, lowest bits first.
+     *
+     * @param out   the output
+     * @param value the value (positive)
+     */
+    static void writeVarint(final ByteArrayOutputStream out, final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    /**
+     * Reads the licence bytes, checking every length against the remaining bytes.
+     */
+    private static final class Reader {
+
+        private final byte[] data;
+
+        private final int limit;
+
+        private int position;
+
+        Reader(final byte[] data, final int limit) {
+            this.data = data;
+            this.limit = limit;
+        }
+
+        int readByte() throws IOException {
+            if (this.position >= this.limit) {
+                throw new IOException("truncated licence");
+            }
+            return this.data[this.position++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        /**
+         * Reads a length, which cannot exceed the remaining bytes.
+         */
+        int readLength() throws IOException {
+            int length = readVarint();
+            if (length < 0 || length > this.limit - this.position) {
+                throw new IOException("invalid length " + length);
+            }
+            return length;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String value = new String(this.data, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+    }
+}
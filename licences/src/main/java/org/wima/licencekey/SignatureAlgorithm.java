@@ -0,0 +1,191 @@
+package org.wima.licencekey;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * The algorithms a licence can be signed with. The algorithm is recorded in the licence envelope, so that a licence is
+ * checked with the algorithm it was signed with.
+ * <p/>
+ * <pre>
+ * algorithm   signature   key generation
+ * RSA         256 bytes   openssl genrsa -out private-key.pem 2048
+ * ECDSA_P256  ~71 bytes   openssl ecparam -name prime256v1 -genkey -noout -out private-key.pem
+ * ED25519     64 bytes    openssl genpkey -algorithm ed25519 -out private-key.pem
+ * </pre>
+ * The keys are then exported to DER as described in {@link LicenceEncryptionManagerImpl} (<code>openssl pkey</code>
+ * works for the three of them). Ed25519 requires a Java 15+ runtime.
+ *
+ * @author Mathieu POUSSE
+ */
+public enum SignatureAlgorithm {
+
+    /**
+     * RSA signature of the SHA-1 digest, the historical algorithm (implied by the envelopes not recording one).
+     */
+    RSA(1, "RSA", "SHA1withRSA") {
+        @Override
+        KeyPairGenerator keyPairGenerator() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(getKeyAlgorithm());
+            generator.initialize(2048);
+            return generator;
+        }
+    },
+
+    /**
+     * ECDSA signature of the SHA-256 digest, on the NIST P-256 curve.
+     */
+    ECDSA_P256(2, "EC", "SHA256withECDSA") {
+        @Override
+        KeyPairGenerator keyPairGenerator() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(getKeyAlgorithm());
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            return generator;
+        }
+    },
+
+    /**
+     * EdDSA signature on the edwards25519 curve.
+     */
+    ED25519(3, "Ed25519", "Ed25519") {
+        @Override
+        KeyPairGenerator keyPairGenerator() throws GeneralSecurityException {
+            return KeyPairGenerator.getInstance(getKeyAlgorithm());
+        }
+    };
+
+    private final byte id;
+
+    private final String keyAlgorithm;
+
+    private final String signatureAlgorithm;
+
+    SignatureAlgorithm(final int id, final String keyAlgorithm, final String signatureAlgorithm) {
+        this.id = (byte) id;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Gets the identifier recorded in the licence envelopes.
+     *
+     * @return see description
+     */
+    public byte getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the name of the key algorithm (for {@link KeyFactory}).
+     *
+     * @return see description
+     */
+    public String getKeyAlgorithm() {
+        return this.keyAlgorithm;
+    }
+
+    /**
+     * Gets the name of the signature algorithm (for {@link Signature}).
+     *
+     * @return see description
+     */
+    public String getSignatureAlgorithm() {
+        return this.signatureAlgorithm;
+    }
+
+    /**
+     * Returns the algorithm recorded with the specified identifier.
+     *
+     * @param id the identifier
+     * @return see description, null if unknown
+     */
+    public static SignatureAlgorithm byId(final int id) {
+        for (final SignatureAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the runtime implements this algorithm.
+     *
+     * @return see description
+     */
+    public boolean isAvailable() {
+        try {
+            KeyFactory.getInstance(this.keyAlgorithm);
+            Signature.getInstance(this.signatureAlgorithm);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a signature instance.
+     *
+     * @return see description
+     */
+    Signature newSignature() {
+        try {
+            return Signature.getInstance(this.signatureAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(this.signatureAlgorithm + " implementation is missing");
+        }
+    }
+
+    /**
+     * Loads a DER (X.509) public key of this algorithm.
+     *
+     * @param encoded the key bytes
+     * @return see description
+     * @throws InvalidKeySpecException if the bytes are not a key of this algorithm
+     */
+    PublicKey publicKey(final byte[] encoded) throws InvalidKeySpecException {
+        return keyFactory().generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    /**
+     * Loads a DER (PKCS#8) private key of this algorithm.
+     *
+     * @param encoded the key bytes
+     * @return see description
+     * @throws InvalidKeySpecException if the bytes are not a key of this algorithm
+     */
+    PrivateKey privateKey(final byte[] encoded) throws InvalidKeySpecException {
+        return keyFactory().generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    private KeyFactory keyFactory() {
+        try {
+            return KeyFactory.getInstance(this.keyAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(this.keyAlgorithm + " implementation is missing");
+        }
+    }
+
+    /**
+     * Generate a new pair of keys of this algorithm.
+     *
+     * @return see description
+     * @throws GeneralSecurityException if the runtime does not implement this algorithm
+     */
+    public KeyPair generateKeyPair() throws GeneralSecurityException {
+        return keyPairGenerator().generateKeyPair();
+    }
+
+    abstract KeyPairGenerator keyPairGenerator() throws GeneralSecurityException;
+
+}
@@ -0,0 +1,65 @@
+package org.wima.licencekey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of a batch licence signing.
+ *
+ * @author Mathieu POUSSE
+ */
+public final class SigningReport {
+
+    private final long count;
+
+    private final long elapsedNanos;
+
+    /**
+     * Create a report.
+     *
+     * @param count        the number of signed licences
+     * @param elapsedNanos the signing duration (ns)
+     */
+    public SigningReport(final long count, final long elapsedNanos) {
+        this.count = count;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of signed licences.
+     *
+     * @return see description
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the signing duration.
+     *
+     * @param unit the unit
+     * @return see description
+     */
+    public long getElapsed(final TimeUnit unit) {
+        return unit.convert(this.elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the throughput.
+     *
+     * @return the number of licences signed per second
+     */
+    public double getLicencesPerSecond() {
+        if (this.elapsedNanos == 0) {
+            return 0;
+        }
+        return this.count * 1e9 / this.elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return count + " licences in " + getElapsed(TimeUnit.MILLISECONDS) + "ms (" + Math.round(getLicencesPerSecond()) + " licences/s)";
+    }
+}
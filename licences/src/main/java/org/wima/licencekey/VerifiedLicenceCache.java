@@ -0,0 +1,281 @@
+package org.wima.licencekey;
+
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size and time bounded cache of the licences already verified, so that only the first sighting of a licence pays
+ * for its decoding and its signature check.
+ * <p/>
+ * Licences are identified by the SHA-256 of their text: a weaker digest would let a forged licence colliding with a
+ * verified one be accepted without any signature check. Both the verified licences and the rejected ones are kept,
+ * along with the public key they were checked with: an entry checked with another key than the current one is
+ * ignored, so loading new keys invalidates the whole cache.
+ * <p/>
+ * A hit is a concurrent map read, no lock is taken: the entry is only marked as used (second chance / CLOCK
+ * eviction). When a new licence makes the cache exceed its capacity, a single thread sweeps the entries, removing the
+ * expired ones and the ones not used since the previous sweep, until an eighth of the capacity is free again. The cache
+ * may briefly hold more licences than its capacity while the sweep runs.
+ *
+ * @author Mathieu POUSSE
+ */
+public final class VerifiedLicenceCache {
+
+    /**
+     * The default number of licences kept in the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The default time a licence is kept in the cache (minutes).
+     */
+    public static final long DEFAULT_TTL_MINUTES = 10;
+
+    /**
+     * One digest per thread, null if SHA-256 is not available (nothing is cached then).
+     */
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    /**
+     * The outcome of a licence check.
+     */
+    public static final class Verification {
+
+        private final ProductLicence licence;
+
+        private final PublicKey publicKey;
+
+        private final long expiresAt;
+
+        private volatile boolean used;
+
+        private Verification(final ProductLicence licence, final PublicKey publicKey, final long expiresAt) {
+            this.licence = licence;
+            this.publicKey = publicKey;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Returns true if the licence signature was valid.
+         *
+         * @return see description
+         */
+        public boolean isValid() {
+            return this.licence != null;
+        }
+
+        /**
+         * Gets the verified licence.
+         *
+         * @return a copy of the licence (the caller may modify it), null if it was rejected
+         */
+        public ProductLicence getLicence() {
+            return copy(this.licence);
+        }
+
+        private boolean isExpired(final long now) {
+            return now - this.expiresAt > 0;
+        }
+    }
+
+    private final ConcurrentMap<ByteBuffer, Verification> verifications = new ConcurrentHashMap<>();
+
+    private final int capacity;
+
+    private final long ttlNanos;
+
+    /**
+     * The number of licences, kept apart as the concurrent map size is not a constant time operation.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * The iterator the sweeps resume from, only used by the evicting thread.
+     */
+    private Iterator<Map.Entry<ByteBuffer, Verification>> hand;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a cache with the default capacity and time to live.
+     */
+    public VerifiedLicenceCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity the maximum number of licences kept
+     * @param ttl      the time a licence is kept
+     * @param unit     the time unit
+     */
+    public VerifiedLicenceCache(final int capacity, final long ttl, final TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    private static ProductLicence copy(final ProductLicence licence) {
+        if (licence == null) {
+            return null;
+        }
+        ProductLicence copy = new ProductLicence();
+        copy.setOwner(licence.getOwner());
+        copy.setExpireAt(licence.getExpireAt() == null ? null : new Date(licence.getExpireAt().getTime()));
+        copy.setFeatures(licence.getFeatures() == null ? null : new ArrayList<>(licence.getFeatures()));
+        return copy;
+    }
+
+    /**
+     * Compute the identifier of a licence.
+     *
+     * @param licence the licence text
+     * @return the SHA-256 of the licence, null if SHA-256 is not available
+     */
+    static ByteBuffer digest(final String licence) {
+        MessageDigest digest = DIGESTS.get();
+        if (digest == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(digest.digest(licence.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the outcome of the previous check of a licence.
+     *
+     * @param digest    the licence identifier (see {@link #digest(String)})
+     * @param publicKey the current public key
+     * @return see description, null if the licence has not been checked with this key or if it expired
+     */
+    Verification get(final ByteBuffer digest, final PublicKey publicKey) {
+        Verification verification = digest == null ? null : this.verifications.get(digest);
+        if (verification == null || verification.publicKey != publicKey || verification.isExpired(System.nanoTime())) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        if (!verification.used) {
+            // only write when needed, so that hot entries are not written on every hit
+            verification.used = true;
+        }
+        this.hits.incrementAndGet();
+        return verification;
+    }
+
+    /**
+     * Records the outcome of the check of a licence.
+     *
+     * @param digest    the licence identifier (see {@link #digest(String)})
+     * @param publicKey the public key the licence was checked with
+     * @param licence   the verified licence, null if it was rejected (a copy is kept)
+     */
+    void put(final ByteBuffer digest, final PublicKey publicKey, final ProductLicence licence) {
+        if (digest == null) {
+            return;
+        }
+        Verification verification = new Verification(copy(licence), publicKey, System.nanoTime() + this.ttlNanos);
+        if (this.verifications.put(digest, verification) == null && this.size.incrementAndGet() > this.capacity) {
+            evict();
+        }
+    }
+
+    /**
+     * Sweep the entries until an eighth of the capacity is free, unless another thread already does.
+     */
+    private void evict() {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int target = this.capacity - (this.capacity >>> 3);
+            long now = System.nanoTime();
+            while (this.size.get() > target) {
+                if (this.hand == null || !this.hand.hasNext()) {
+                    this.hand = this.verifications.entrySet().iterator();
+                    if (!this.hand.hasNext()) {
+                        // cleared meanwhile
+                        return;
+                    }
+                }
+                Map.Entry<ByteBuffer, Verification> candidate = this.hand.next();
+                Verification verification = candidate.getValue();
+                if (verification.used && !verification.isExpired(now)) {
+                    verification.used = false;
+                } else if (this.verifications.remove(candidate.getKey(), verification)) {
+                    this.size.decrementAndGet();
+                }
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    /**
+     * Remove all the licences.
+     */
+    public void clear() {
+        for (final ByteBuffer digest : this.verifications.keySet()) {
+            if (this.verifications.remove(digest) != null) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of licences currently cached.
+     *
+     * @return see description
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return see description
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to check the licence.
+     *
+     * @return see description
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+}
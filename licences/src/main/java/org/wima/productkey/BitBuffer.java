@@ -0,0 +1,193 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size bit buffer packed in 64 bits words.
+ * <p/>
+ * Bits are stored most significant first: the bit at index 0 is the highest bit of the first word. This matches the
+ * order in which the key characters, the salt and the hidden values are read, so a whole character or value can be
+ * read / written with a couple of shifts instead of one operation per bit.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+final class BitBuffer {
+
+    private long[] words;
+
+    private int length;
+
+    /**
+     * Create a buffer holding the specified number of bits (all cleared).
+     *
+     * @param length the number of bits
+     */
+    BitBuffer(final int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must be positive");
+        }
+        this.length = length;
+        this.words = new long[(length + 63) >>> 6];
+    }
+
+    /**
+     * Clear the buffer and change its length, so that it can be reused for another key.
+     *
+     * @param length the number of bits
+     */
+    void reset(final int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must be positive");
+        }
+        int count = (length + 63) >>> 6;
+        if (count > this.words.length) {
+            this.words = new long[count];
+        } else {
+            Arrays.fill(this.words, 0, count, 0L);
+        }
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of bits.
+     *
+     * @return see description
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * Returns the bit at the specified index.
+     *
+     * @param index the bit index
+     * @return see description
+     */
+    boolean get(final int index) {
+        return (this.words[index >>> 6] << index) < 0;
+    }
+
+    /**
+     * Returns the bit at the specified index as 0 or 1.
+     *
+     * @param index the bit index
+     * @return see description
+     */
+    int bit(final int index) {
+        return (int) ((this.words[index >>> 6] << index) >>> 63);
+    }
+
+    /**
+     * Sets the bit at the specified index.
+     *
+     * @param index the bit index
+     * @param value the new value
+     */
+    void set(final int index, final boolean value) {
+        long mask = Long.MIN_VALUE >>> index;
+        if (value) {
+            this.words[index >>> 6] |= mask;
+        } else {
+            this.words[index >>> 6] &= ~mask;
+        }
+    }
+
+    /**
+     * Read <code>count</code> bits (up to 64) starting at <code>offset</code>, the first bit being the most significant.
+     *
+     * @param offset the first bit
+     * @param count  the number of bits
+     * @return see description
+     */
+    long read(final int offset, final int count) {
+        if (count == 0) {
+            return 0;
+        }
+        int word = offset >>> 6;
+        int shift = offset & 63;
+        long bits = this.words[word] << shift;
+        if (shift + count > 64) {
+            bits |= this.words[word + 1] >>> (64 - shift);
+        }
+        return bits >>> (64 - count);
+    }
+
+    /**
+     * Write the <code>count</code> lowest bits (up to 64) of <code>value</code> starting at <code>offset</code>.
+     *
+     * @param offset the first bit
+     * @param value  the value to write
+     * @param count  the number of bits
+     */
+    void write(final int offset, final long value, final int count) {
+        if (count == 0) {
+            return;
+        }
+        long bits = value << (64 - count);
+        long mask = -1L << (64 - count);
+        int word = offset >>> 6;
+        int shift = offset & 63;
+        this.words[word] = (this.words[word] & ~(mask >>> shift)) | (bits >>> shift);
+        if (shift + count > 64) {
+            int remaining = 64 - shift;
+            this.words[word + 1] = (this.words[word + 1] & ~(mask << remaining)) | (bits << remaining);
+        }
+    }
+
+    /**
+     * Fill the buffer by repeating the given bytes as many times as needed.
+     *
+     * @param pattern the bytes to repeat (nothing is done if empty)
+     */
+    void fillCyclic(final byte[] pattern) {
+        if (pattern.length == 0) {
+            return;
+        }
+        int index = 0;
+        for (int offset = 0; offset < this.length; offset += 8) {
+            int count = Math.min(8, this.length - offset);
+            write(offset, (pattern[index] & 0xFF) >>> (8 - count), count);
+            if (++index == pattern.length) {
+                index = 0;
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer with random bits, a whole word at a time.
+     *
+     * @param entropy the source of the random bits
+     */
+    void fillRandom(final EntropySource entropy) {
+        for (int i = 0; i < (this.length + 63) >>> 6; i++) {
+            this.words[i] = entropy.nextLong();
+        }
+        clearTail();
+    }
+
+    /**
+     * XOR this buffer with the first bits of the specified one.
+     *
+     * @param other a buffer at least as long as this one
+     */
+    void xor(final BitBuffer other) {
+        if (other.length < this.length) {
+            throw new IllegalArgumentException("the buffer to XOR with is too short");
+        }
+        for (int i = 0; i < (this.length + 63) >>> 6; i++) {
+            this.words[i] ^= other.words[i];
+        }
+        clearTail();
+    }
+
+    /**
+     * Clear the unused bits of the last word so that they never leak through word operations.
+     */
+    private void clearTail() {
+        int used = this.length & 63;
+        if (used != 0) {
+            this.words[this.length >>> 6] &= -1L << (64 - used);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.wima.productkey;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The source of the random bits used to generate keys and signatures. Implementations must be thread safe.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public abstract class EntropySource {
+
+    /**
+     * Returns 64 random bits.
+     *
+     * @return see description
+     */
+    public abstract long nextLong();
+
+    /**
+     * Returns a random integer uniformly chosen in [0, bound[.
+     *
+     * @param bound the exclusive upper bound (strictly positive)
+     * @return see description
+     */
+    public int nextInt(final int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        // rejection sampling on 31 bits to avoid the modulo bias
+        int limit = Integer.MAX_VALUE - (Integer.MAX_VALUE % bound);
+        int value;
+        do {
+            value = (int) (nextLong() >>> 33);
+        } while (value >= limit);
+        return value % bound;
+    }
+
+    /**
+     * Returns a fast source, each thread drawing from its own generator (no contention). Not suitable when keys must
+     * be unpredictable, see {@link #secure()}.
+     *
+     * @return see description
+     */
+    public static EntropySource threadLocal() {
+        return ThreadLocalSource.INSTANCE;
+    }
+
+    /**
+     * Returns a cryptographically strong source, each thread owning its {@link SecureRandom}.
+     *
+     * @return see description
+     */
+    public static EntropySource secure() {
+        return new SecureSource();
+    }
+
+    /**
+     * Returns a deterministic source: the same seed gives the same sequence of bits (as long as the calls happen in
+     * the same order, so it is meant for single threaded tests).
+     *
+     * @param seed the seed
+     * @return see description
+     */
+    public static EntropySource seeded(final long seed) {
+        return new SeededSource(seed);
+    }
+
+    private static final class ThreadLocalSource extends EntropySource {
+
+        private static final ThreadLocalSource INSTANCE = new ThreadLocalSource();
+
+        @Override
+        public long nextLong() {
+            return ThreadLocalRandom.current().nextLong();
+        }
+
+        @Override
+        public int nextInt(final int bound) {
+            return ThreadLocalRandom.current().nextInt(bound);
+        }
+    }
+
+    private static final class SecureSource extends EntropySource {
+
+        private final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+            @Override
+            protected SecureRandom initialValue() {
+                return new SecureRandom();
+            }
+        };
+
+        @Override
+        public long nextLong() {
+            return this.randoms.get().nextLong();
+        }
+    }
+
+    /**
+     * SplitMix64, the algorithm behind java 8 SplittableRandom.
+     */
+    private static final class SeededSource extends EntropySource {
+
+        private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+        private final AtomicLong state;
+
+        SeededSource(final long seed) {
+            this.state = new AtomicLong(seed);
+        }
+
+        @Override
+        public long nextLong() {
+            long z = this.state.addAndGet(GOLDEN_GAMMA);
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.wima.productkey;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+/**
+ * A point from which an interrupted export can be resumed: the number of records written and the size of the file
+ * once they were flushed.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ExportCheckpoint {
+
+    private final long records;
+
+    private final long offset;
+
+    /**
+     * Create a checkpoint.
+     *
+     * @param records the number of records written
+     * @param offset  the size of the file once the records were flushed (bytes)
+     */
+    public ExportCheckpoint(final long records, final long offset) {
+        if (records < 0 || offset < 0) {
+            throw new IllegalArgumentException("records and offset must be positive");
+        }
+        this.records = records;
+        this.offset = offset;
+    }
+
+    /**
+     * Read a checkpoint written by {@link #write(Path)}.
+     *
+     * @param file the checkpoint file
+     * @return the checkpoint, null if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static ExportCheckpoint read(final Path file) throws IOException {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int separator = content.indexOf(' ');
+        if (separator < 0) {
+            throw new IOException("invalid checkpoint '" + content + "'");
+        }
+        try {
+            return new ExportCheckpoint(Long.parseLong(content.substring(0, separator)), Long.parseLong(content.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid checkpoint '" + content + "'", e);
+        }
+    }
+
+    /**
+     * Write the checkpoint. The file is written aside and then moved in place, so that it always holds a complete
+     * checkpoint.
+     *
+     * @param file the checkpoint file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, (this.records + " " + this.offset + "\n").getBytes(StandardCharsets.US_ASCII));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Skip the requests whose record has already been written.
+     *
+     * @param requests the requests, in the order of the interrupted export
+     * @return the number of requests skipped (less than {@link #getRecords()} if there were not enough requests)
+     */
+    public long skip(final Iterator<?> requests) {
+        long skipped = 0;
+        while (skipped < this.records && requests.hasNext()) {
+            requests.next();
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Gets the number of records written.
+     *
+     * @return see description
+     */
+    public long getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Gets the size of the file once the records were flushed.
+     *
+     * @return see description
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ExportCheckpoint{" +
+                "records=" + records +
+                ", offset=" + offset +
+                '}';
+    }
+}
@@ -0,0 +1,88 @@
+package org.wima.productkey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of a bulk key issuance.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class IssuanceReport {
+
+    private final long count;
+
+    private final long elapsedNanos;
+
+    private final long regenerated;
+
+    /**
+     * Create a report.
+     *
+     * @param count        the number of issued keys
+     * @param elapsedNanos the issuance duration (ns)
+     */
+    public IssuanceReport(final long count, final long elapsedNanos) {
+        this(count, elapsedNanos, 0);
+    }
+
+    /**
+     * Create a report.
+     *
+     * @param count        the number of issued keys
+     * @param elapsedNanos the issuance duration (ns)
+     * @param regenerated  the number of keys generated again because they were already issued
+     */
+    public IssuanceReport(final long count, final long elapsedNanos, final long regenerated) {
+        this.count = count;
+        this.elapsedNanos = elapsedNanos;
+        this.regenerated = regenerated;
+    }
+
+    /**
+     * Gets the number of issued keys.
+     *
+     * @return see description
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * Gets the number of keys generated again because they were already issued.
+     *
+     * @return see description
+     */
+    public long getRegenerated() {
+        return this.regenerated;
+    }
+
+    /**
+     * Gets the issuance duration.
+     *
+     * @param unit the unit
+     * @return see description
+     */
+    public long getElapsed(final TimeUnit unit) {
+        return unit.convert(this.elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the throughput.
+     *
+     * @return the number of keys issued per second
+     */
+    public double getKeysPerSecond() {
+        if (this.elapsedNanos == 0) {
+            return 0;
+        }
+        return this.count * 1e9 / this.elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return count + " keys in " + getElapsed(TimeUnit.MILLISECONDS) + "ms (" + Math.round(getKeysPerSecond()) + " keys/s, " + regenerated + " regenerated)";
+    }
+}
@@ -0,0 +1,69 @@
+package org.wima.productkey;
+
+/**
+ * A key to validate: the key, its owner and the size of expected data.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyCheck {
+
+    private final String key;
+
+    private final String owner;
+
+    private final int[] sizes;
+
+    /**
+     * Create a check.
+     *
+     * @param key   the key
+     * @param owner the key owner
+     * @param sizes the size of expected data
+     */
+    public KeyCheck(final String key, final String owner, final int[] sizes) {
+        if (key == null || owner == null || sizes == null) {
+            throw new IllegalArgumentException("key, owner and sizes cannot be null");
+        }
+        this.key = key;
+        this.owner = owner;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Gets key.
+     *
+     * @return Value of key.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Gets owner.
+     *
+     * @return Value of owner.
+     */
+    public String getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * Gets sizes.
+     *
+     * @return Value of sizes.
+     */
+    public int[] getSizes() {
+        return this.sizes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "KeyCheck{" +
+                "key='" + key + '\'' +
+                ", owner='" + owner + '\'' +
+                '}';
+    }
+}
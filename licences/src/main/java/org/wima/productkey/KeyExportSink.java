@@ -0,0 +1,349 @@
+package org.wima.productkey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link KeySink} writing one record per key to a file: the formatted key, the owner and the values.
+ * <p/>
+ * Records are encoded (UTF-8) into a large direct buffer which is written to the file channel when full, so the memory
+ * used does not depend on the number of keys. The output can be gzip compressed.
+ * <p/>
+ * {@link #checkpoint()} flushes everything written so far (finishing the current gzip member, the file being a
+ * sequence of members that any gzip reader concatenates) and returns the file offset. An interrupted export can be
+ * resumed with {@link #resume(Path, ProductKeyManagerImpl, Format, int, boolean, ExportCheckpoint)}: the file is
+ * truncated to the checkpoint and the requests already exported must be skipped (see {@link ExportCheckpoint#skip}).
+ * <p/>
+ * Instances are not thread safe, which is fine as the generator gives the keys to the sink from a single thread.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyExportSink implements KeySink, Closeable {
+
+    /**
+     * The record layout.
+     */
+    public enum Format {
+        /**
+         * <code>key,owner,value1,value2...</code>, the owner being quoted if needed.
+         */
+        CSV,
+        /**
+         * The key, the owner padded to {@link #OWNER_WIDTH} characters and each value on 10 digits, separated by a
+         * space. An owner longer than {@link #OWNER_WIDTH} characters is rejected.
+         */
+        FIXED_WIDTH
+    }
+
+    /**
+     * The width of the owner column of {@link Format#FIXED_WIDTH} records.
+     */
+    public static final int OWNER_WIDTH = 64;
+
+    /**
+     * The size of the I/O buffers.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final FileChannel channel;
+
+    private final ProductKeyManagerImpl manager;
+
+    private final Format format;
+
+    private final int groupSize;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    private final StringBuilder record = new StringBuilder(256);
+
+    private char[] chars = new char[256];
+
+    /**
+     * The buffer written to the file.
+     */
+    private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * When compressing, the records waiting to be deflated (the deflater only reads arrays on Java 7).
+     */
+    private final ByteBuffer staging;
+
+    private final byte[] deflated;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc;
+
+    /**
+     * True if the gzip header of the current member has been written.
+     */
+    private boolean member;
+
+    private long records;
+
+    /**
+     * Create a sink writing to a new (or truncated) file.
+     *
+     * @param file      the file
+     * @param manager   formats the keys
+     * @param format    the record layout
+     * @param groupSize the number of characters per group of the formatted keys
+     * @param gzip      true to compress the file
+     * @throws IOException if the file cannot be opened
+     */
+    public KeyExportSink(final Path file, final ProductKeyManagerImpl manager, final Format format, final int groupSize, final boolean gzip) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), manager, format, groupSize, gzip, 0);
+    }
+
+    private KeyExportSink(final FileChannel channel, final ProductKeyManagerImpl manager, final Format format, final int groupSize, final boolean gzip, final long records) {
+        this.channel = channel;
+        this.manager = manager;
+        this.format = format;
+        this.groupSize = groupSize;
+        this.records = records;
+        if (gzip) {
+            this.staging = ByteBuffer.allocate(BUFFER_SIZE);
+            this.deflated = new byte[64 * 1024];
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.crc = new CRC32();
+        } else {
+            this.staging = null;
+            this.deflated = null;
+            this.deflater = null;
+            this.crc = null;
+        }
+    }
+
+    /**
+     * Resume an interrupted export: the file is truncated to the checkpoint and the next records are appended.
+     *
+     * @param file       the file
+     * @param manager    formats the keys
+     * @param format     the record layout, the same as the interrupted export
+     * @param groupSize  the number of characters per group of the formatted keys
+     * @param gzip       true to compress the file, the same as the interrupted export
+     * @param checkpoint the last checkpoint of the interrupted export
+     * @return the sink
+     * @throws IOException if the file cannot be opened or is shorter than the checkpoint
+     */
+    public static KeyExportSink resume(final Path file, final ProductKeyManagerImpl manager, final Format format, final int groupSize, final boolean gzip, final ExportCheckpoint checkpoint) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < checkpoint.getOffset()) {
+                throw new IOException("the file is shorter than the checkpoint (" + channel.size() + " < " + checkpoint.getOffset() + " bytes)");
+            }
+            channel.truncate(checkpoint.getOffset());
+            channel.position(checkpoint.getOffset());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new KeyExportSink(channel, manager, format, groupSize, gzip, checkpoint.getRecords());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void accept(final KeyRequest request, final String key) throws IOException {
+        this.record.setLength(0);
+        this.manager.formatKey(key, this.groupSize, this.record);
+        if (this.format == Format.CSV) {
+            this.record.append(',');
+            appendCsv(request.getOwner());
+            for (final int value : request.values()) {
+                this.record.append(',').append(value & 0xFFFFFFFFL);
+            }
+        } else {
+            String owner = request.getOwner();
+            if (owner.length() > OWNER_WIDTH) {
+                throw new IllegalArgumentException("the owner is longer than " + OWNER_WIDTH + " characters");
+            }
+            this.record.append(' ').append(owner);
+            for (int i = owner.length(); i < OWNER_WIDTH; i++) {
+                this.record.append(' ');
+            }
+            for (final int value : request.values()) {
+                this.record.append(' ');
+                String digits = Long.toString(value & 0xFFFFFFFFL);
+                for (int i = digits.length(); i < 10; i++) {
+                    this.record.append('0');
+                }
+                this.record.append(digits);
+            }
+        }
+        this.record.append('\n');
+        encode();
+        this.records++;
+    }
+
+    private void appendCsv(final String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            this.record.append(value);
+            return;
+        }
+        this.record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                this.record.append('"');
+            }
+            this.record.append(c);
+        }
+        this.record.append('"');
+    }
+
+    /**
+     * Encode the record into the buffer, draining it as many times as needed.
+     */
+    private void encode() throws IOException {
+        int length = this.record.length();
+        if (this.chars.length < length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        this.record.getChars(0, length, this.chars, 0);
+        CharBuffer input = CharBuffer.wrap(this.chars, 0, length);
+        ByteBuffer target = this.staging == null ? this.output : this.staging;
+        this.encoder.reset();
+        while (true) {
+            CoderResult result = this.encoder.encode(input, target, true);
+            if (result.isUnderflow()) {
+                break;
+            }
+            if (result.isOverflow()) {
+                drain();
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Empty the buffer the records are encoded into.
+     */
+    private void drain() throws IOException {
+        if (this.staging == null) {
+            write();
+            return;
+        }
+        if (this.staging.position() == 0) {
+            return;
+        }
+        if (!this.member) {
+            put(GZIP_HEADER, GZIP_HEADER.length);
+            this.member = true;
+        }
+        this.crc.update(this.staging.array(), 0, this.staging.position());
+        this.deflater.setInput(this.staging.array(), 0, this.staging.position());
+        while (!this.deflater.needsInput()) {
+            put(this.deflated, this.deflater.deflate(this.deflated));
+        }
+        this.staging.clear();
+    }
+
+    /**
+     * Append bytes to the output buffer.
+     */
+    private void put(final byte[] bytes, final int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!this.output.hasRemaining()) {
+                write();
+            }
+            int count = Math.min(length - offset, this.output.remaining());
+            this.output.put(bytes, offset, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Write the output buffer to the file.
+     */
+    private void write() throws IOException {
+        this.output.flip();
+        while (this.output.hasRemaining()) {
+            this.channel.write(this.output);
+        }
+        this.output.clear();
+    }
+
+    /**
+     * Write everything to the file and finish the current gzip member.
+     */
+    private void flush() throws IOException {
+        drain();
+        if (this.member) {
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                put(this.deflated, this.deflater.deflate(this.deflated));
+            }
+            int crcValue = (int) this.crc.getValue();
+            int size = (int) this.deflater.getBytesRead();
+            byte[] trailer = {
+                    (byte) crcValue, (byte) (crcValue >>> 8), (byte) (crcValue >>> 16), (byte) (crcValue >>> 24),
+                    (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)};
+            put(trailer, trailer.length);
+            this.deflater.reset();
+            this.crc.reset();
+            this.member = false;
+        }
+        write();
+    }
+
+    /**
+     * Write all the records to the disk and return the point from which the export can be resumed.
+     *
+     * @return see description
+     * @throws IOException if the records cannot be written
+     */
+    public ExportCheckpoint checkpoint() throws IOException {
+        flush();
+        this.channel.force(false);
+        return new ExportCheckpoint(this.records, this.channel.position());
+    }
+
+    /**
+     * Gets the number of records written, including the ones of the interrupted export if resumed.
+     *
+     * @return see description
+     */
+    public long getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Write the remaining records and close the file.
+     *
+     * @throws IOException if the records cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
+            this.channel.close();
+        }
+    }
+
+}
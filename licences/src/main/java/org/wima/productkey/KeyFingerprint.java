@@ -0,0 +1,112 @@
+package org.wima.productkey;
+
+/**
+ * Computes 64 bits fingerprints of product keys.
+ * <p/>
+ * The fingerprint of the key text ({@link #of(CharSequence)}, separators being ignored) tells issued keys apart. The
+ * fingerprint of the key content (its owner salt, version and values) identifies what a key grants, whatever its filler
+ * characters: the revoked keys are indexed by content, as any character holding no hidden bit can be changed without
+ * breaking the key.
+ * <p/>
+ * Two different keys may share a fingerprint (about one chance in 2^64 for a given pair), so a fingerprint is only
+ * used where a false positive is harmless or checked afterwards.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private KeyFingerprint() {
+        // utility class
+    }
+
+    /**
+     * Compute the fingerprint of a key.
+     *
+     * @param key the key, formatted or not
+     * @return see description
+     */
+    public static long of(final CharSequence key) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!ProductKeyCodec.isSeparator(c)) {
+                hash = (hash ^ c) * FNV_PRIME;
+            }
+        }
+        return avalanche(hash);
+    }
+
+    /**
+     * Compute the fingerprint of the content of a valid key.
+     *
+     * @param salt    the owner salt
+     * @param version the key version, -1 if the key is not versioned
+     * @param sizes   the size of each value (bits)
+     * @param values  the decoded values
+     * @return see description
+     */
+    static long of(final Salt salt, final int version, final int[] sizes, final int[] values) {
+        long hash = content(salt, version, sizes);
+        for (final int value : values) {
+            // unsigned, as a 32 bits field decoded as a long
+            hash = add(hash, value & 0xFFFFFFFFL);
+        }
+        return avalanche(hash);
+    }
+
+    /**
+     * Compute the fingerprint of the content of a valid key, fields being up to 64 bits wide. The fingerprint is the
+     * one of {@link #of(Salt, int, int[], int[])} for fields up to 32 bits.
+     *
+     * @param salt    the owner salt
+     * @param version the key version, -1 if the key is not versioned
+     * @param sizes   the size of each value (bits)
+     * @param values  the decoded values
+     * @return see description
+     */
+    static long of(final Salt salt, final int version, final int[] sizes, final long[] values) {
+        long hash = content(salt, version, sizes);
+        for (int i = 0; i < sizes.length; i++) {
+            hash = add(hash, values[i]);
+        }
+        return avalanche(hash);
+    }
+
+    private static long content(final Salt salt, final int version, final int[] sizes) {
+        byte[] bytes = salt.bytes();
+        long hash = add(FNV_OFFSET, bytes.length);
+        for (final byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        hash = add(hash, version);
+        hash = add(hash, sizes.length);
+        for (final int size : sizes) {
+            hash = (hash ^ size) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long add(final long hash, final long value) {
+        long added = hash;
+        for (int shift = 0; shift < 64; shift += 8) {
+            added = (added ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return added;
+    }
+
+    private static long avalanche(final long fnv) {
+        long hash = fnv;
+        // final avalanche (murmur3) so that every bit depends on every character
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.wima.productkey;
+
+/**
+ * A set of key fingerprints stored in a primitive open addressing table. Slots take 8 bytes and the table is kept at
+ * most 80% full, so a set presized with the expected number of fingerprints costs about 10 bytes per fingerprint.
+ * <p/>
+ * This class is not thread safe.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyFingerprintSet {
+
+    /**
+     * Marks an empty slot. The fingerprint 0 is stored as {@link #ZERO_SUBSTITUTE}.
+     */
+    private static final long EMPTY = 0L;
+
+    private static final long ZERO_SUBSTITUTE = 0x9e3779b97f4a7c15L;
+
+    private long[] slots;
+
+    private int size;
+
+    private int threshold;
+
+    /**
+     * The largest table.
+     */
+    private static final int MAXIMUM_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Create a set.
+     *
+     * @param expectedSize the number of fingerprints expected (the set grows beyond)
+     */
+    public KeyFingerprintSet(final int expectedSize) {
+        allocate((int) Math.min(MAXIMUM_CAPACITY, Math.max(16, expectedSize * 5L / 4 + 1)));
+    }
+
+    private void allocate(final int capacity) {
+        this.slots = new long[capacity];
+        this.threshold = (int) (capacity * 4L / 5);
+    }
+
+    /**
+     * Maps the fingerprint high bits onto the table without a division.
+     */
+    private int index(final long fingerprint) {
+        return (int) (((fingerprint >>> 32) * this.slots.length) >>> 32);
+    }
+
+    /**
+     * Add a fingerprint.
+     *
+     * @param fingerprint the fingerprint
+     * @return true if it was not already in the set
+     */
+    public boolean add(final long fingerprint) {
+        long stored = fingerprint == EMPTY ? ZERO_SUBSTITUTE : fingerprint;
+        int index = index(stored);
+        while (this.slots[index] != EMPTY) {
+            if (this.slots[index] == stored) {
+                return false;
+            }
+            if (++index == this.slots.length) {
+                index = 0;
+            }
+        }
+        this.slots[index] = stored;
+        if (++this.size > this.threshold) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the set holds a fingerprint.
+     *
+     * @param fingerprint the fingerprint
+     * @return see description
+     */
+    public boolean contains(final long fingerprint) {
+        long stored = fingerprint == EMPTY ? ZERO_SUBSTITUTE : fingerprint;
+        int index = index(stored);
+        while (this.slots[index] != EMPTY) {
+            if (this.slots[index] == stored) {
+                return true;
+            }
+            if (++index == this.slots.length) {
+                index = 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of fingerprints.
+     *
+     * @return see description
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private void grow() {
+        if (this.slots.length == MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("too many fingerprints");
+        }
+        long[] previous = this.slots;
+        allocate((int) Math.min(MAXIMUM_CAPACITY, previous.length * 3L / 2));
+        for (final long stored : previous) {
+            if (stored != EMPTY) {
+                int index = index(stored);
+                while (this.slots[index] != EMPTY) {
+                    if (++index == this.slots.length) {
+                        index = 0;
+                    }
+                }
+                this.slots[index] = stored;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+
+/**
+ * A key to issue: the owner and the values to hide.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyRequest {
+
+    private final String owner;
+
+    private final int[] values;
+
+    /**
+     * Create a request.
+     *
+     * @param owner  the key owner
+     * @param values the values to hide
+     */
+    public KeyRequest(final String owner, final int[] values) {
+        if (owner == null || values == null) {
+            throw new IllegalArgumentException("owner and values cannot be null");
+        }
+        this.owner = owner;
+        this.values = values.clone();
+    }
+
+    /**
+     * Gets owner.
+     *
+     * @return Value of owner.
+     */
+    public String getOwner() {
+        return this.owner;
+    }
+
+    /**
+     * Gets values.
+     *
+     * @return a copy of the values.
+     */
+    public int[] getValues() {
+        return this.values.clone();
+    }
+
+    /**
+     * Returns the values without copying them.
+     *
+     * @return see description
+     */
+    int[] values() {
+        return this.values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "KeyRequest{" +
+                "owner='" + owner + '\'' +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
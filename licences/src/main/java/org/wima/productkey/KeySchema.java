@@ -0,0 +1,291 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The layout of the values hidden in a key: named fields of up to 64 bits, in the order they are stored.
+ * <p/>
+ * A schema is immutable and validated once when it is built. It is shared by the generation
+ * ({@link ProductKeyGenerator#pack(KeyValues, String)}) and the validation
+ * ({@link ProductKeyManagerImpl#unpack(CharSequence, String, KeyValues)}) so both always agree on the layout. Values
+ * are carried by a {@link KeyValues} holder created with {@link #newValues()}, which can be reused from one key to the
+ * next.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeySchema {
+
+    /**
+     * A field of the schema.
+     */
+    public static final class Field {
+
+        private final String name;
+
+        private final int width;
+
+        /**
+         * The constants of an enumerated field, null otherwise.
+         */
+        private final Enum<?>[] constants;
+
+        /**
+         * The origin and the unit (ms) of a date field, the unit being 0 for other fields.
+         */
+        private final long epoch;
+
+        private final long unit;
+
+        private Field(final String name, final int width, final Enum<?>[] constants, final long epoch, final long unit) {
+            if (name == null) {
+                throw new IllegalArgumentException("name cannot be null");
+            }
+            if (width < 1 || width > 64) {
+                throw new IllegalArgumentException("field '" + name + "' must be 1 to 64 bits wide");
+            }
+            this.name = name;
+            this.width = width;
+            this.constants = constants;
+            this.epoch = epoch;
+            this.unit = unit;
+        }
+
+        /**
+         * A field holding an unsigned number.
+         *
+         * @param name  the field name
+         * @param width the number of bits (1 to 64)
+         * @return see description
+         */
+        public static Field bits(final String name, final int width) {
+            return new Field(name, width, null, 0, 0);
+        }
+
+        /**
+         * A field holding a constant of an enumeration, stored as its ordinal with as few bits as possible.
+         *
+         * @param name  the field name
+         * @param type  the enumeration
+         * @return see description
+         */
+        public static Field enumeration(final String name, final Class<? extends Enum<?>> type) {
+            Enum<?>[] constants = type.getEnumConstants();
+            return new Field(name, Math.max(1, 32 - Integer.numberOfLeadingZeros(constants.length - 1)), constants, 0, 0);
+        }
+
+        /**
+         * A field holding a date, stored as the number of units elapsed since the epoch (earlier dates cannot be
+         * stored, later ones are truncated to the unit).
+         *
+         * @param name  the field name
+         * @param width the number of bits (1 to 64)
+         * @param epoch the first date that can be stored
+         * @param unit  the precision
+         * @return see description
+         */
+        public static Field date(final String name, final int width, final Date epoch, final TimeUnit unit) {
+            long millis = unit.toMillis(1);
+            if (millis < 1) {
+                throw new IllegalArgumentException("the date precision must be at least a millisecond");
+            }
+            return new Field(name, width, null, epoch.getTime(), millis);
+        }
+
+        /**
+         * Gets the field name.
+         *
+         * @return see description
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the number of bits.
+         *
+         * @return see description
+         */
+        public int getWidth() {
+            return this.width;
+        }
+
+        /**
+         * Returns the largest value the field can hold (unsigned).
+         *
+         * @return see description
+         */
+        long max() {
+            return -1L >>> (64 - this.width);
+        }
+
+        /**
+         * Converts a stored value to a date (ms since 1970).
+         *
+         * @param value the stored value
+         * @return see description
+         */
+        long toTime(final long value) {
+            if (this.unit == 0) {
+                throw new IllegalArgumentException("field '" + this.name + "' is not a date");
+            }
+            return this.epoch + value * this.unit;
+        }
+
+        /**
+         * Converts a date (ms since 1970) to the stored value.
+         *
+         * @param time the date
+         * @return see description
+         */
+        long fromTime(final long time) {
+            if (this.unit == 0) {
+                throw new IllegalArgumentException("field '" + this.name + "' is not a date");
+            }
+            if (time < this.epoch) {
+                throw new IllegalArgumentException("field '" + this.name + "' cannot hold a date before " + new Date(this.epoch));
+            }
+            return (time - this.epoch) / this.unit;
+        }
+
+        /**
+         * Converts a stored value to its enumeration constant.
+         *
+         * @param type  the enumeration
+         * @param value the stored value
+         * @return the constant, null if the value is not the ordinal of a constant
+         */
+        <E extends Enum<E>> E toConstant(final Class<E> type, final long value) {
+            if (this.constants == null || this.constants.getClass().getComponentType() != type) {
+                throw new IllegalArgumentException("field '" + this.name + "' is not a " + type.getSimpleName());
+            }
+            return value < this.constants.length ? type.cast(this.constants[(int) value]) : null;
+        }
+
+        /**
+         * Converts an enumeration constant to the stored value.
+         *
+         * @param constant the constant
+         * @return see description
+         */
+        long fromConstant(final Enum<?> constant) {
+            if (this.constants == null || this.constants.getClass().getComponentType() != constant.getDeclaringClass()) {
+                throw new IllegalArgumentException("field '" + this.name + "' is not a " + constant.getDeclaringClass().getSimpleName());
+            }
+            return constant.ordinal();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return this.name + ":" + this.width;
+        }
+    }
+
+    private final Field[] fields;
+
+    private final int[] sizes;
+
+    private final Map<String, Integer> indexes;
+
+    private final int bits;
+
+    /**
+     * Create a schema.
+     *
+     * @param fields the fields, in the order they are stored
+     */
+    public KeySchema(final Field... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("a schema must have at least one field");
+        }
+        this.fields = fields.clone();
+        this.sizes = new int[fields.length];
+        Map<String, Integer> byName = new HashMap<>();
+        int total = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (byName.put(fields[i].getName(), i) != null) {
+                throw new IllegalArgumentException("duplicate field '" + fields[i].getName() + "'");
+            }
+            this.sizes[i] = fields[i].getWidth();
+            total += fields[i].getWidth();
+        }
+        this.indexes = Collections.unmodifiableMap(byName);
+        this.bits = total;
+    }
+
+    /**
+     * Creates a holder for the values of a key of this schema.
+     *
+     * @return see description
+     */
+    public KeyValues newValues() {
+        return new KeyValues(this);
+    }
+
+    /**
+     * Gets the index of the named field.
+     *
+     * @param name the field name
+     * @return see description
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public int indexOf(final String name) {
+        Integer index = this.indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("unknown field '" + name + "'");
+        }
+        return index;
+    }
+
+    /**
+     * Gets a field.
+     *
+     * @param index the field index
+     * @return see description
+     */
+    public Field getField(final int index) {
+        return this.fields[index];
+    }
+
+    /**
+     * Gets the number of fields.
+     *
+     * @return see description
+     */
+    public int size() {
+        return this.fields.length;
+    }
+
+    /**
+     * Gets the number of bits hidden in a key (for one pass).
+     *
+     * @return see description
+     */
+    public int getBits() {
+        return this.bits;
+    }
+
+    /**
+     * Returns the size of each field without copying them, they must not be modified.
+     *
+     * @return see description
+     */
+    int[] sizes() {
+        return this.sizes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "KeySchema" + Arrays.toString(this.fields);
+    }
+}
@@ -0,0 +1,21 @@
+package org.wima.productkey;
+
+import java.io.IOException;
+
+/**
+ * Receives the issued keys, in the order of the requests.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public interface KeySink {
+
+    /**
+     * Called once per issued key.
+     *
+     * @param request the request
+     * @param key     the issued key (not formatted)
+     * @throws IOException if the key cannot be stored
+     */
+    void accept(KeyRequest request, String key) throws IOException;
+
+}
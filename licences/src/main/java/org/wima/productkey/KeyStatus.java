@@ -0,0 +1,46 @@
+package org.wima.productkey;
+
+/**
+ * The outcome of a key validation.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public enum KeyStatus {
+
+    /**
+     * The key is valid, the values have been decoded.
+     */
+    VALID,
+
+    /**
+     * The key contains a character out of the character set.
+     */
+    ILLEGAL_CHARACTER,
+
+    /**
+     * The copies of the hidden values do not match.
+     */
+    REDUNDANCY_MISMATCH,
+
+    /**
+     * The key is well-formed but has been revoked.
+     */
+    REVOKED,
+
+    /**
+     * The key starts with a version that is not registered.
+     */
+    UNKNOWN_VERSION,
+
+    /**
+     * The key does not have the number of characters of the issued keys (or is too short to hold the hidden values).
+     */
+    INVALID_LENGTH,
+
+    /**
+     * The key cannot be decoded with the requested sizes and the current signature (the signature is too short for
+     * the sizes, a field is wider than 32 bits...).
+     */
+    INVALID_LAYOUT
+
+}
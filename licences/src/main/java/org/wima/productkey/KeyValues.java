@@ -0,0 +1,221 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * The values hidden in a key, laid out by a {@link KeySchema}.
+ * <p/>
+ * A holder is filled by {@link ProductKeyManagerImpl#unpack(CharSequence, String, KeyValues)} or by the setters before
+ * {@link ProductKeyGenerator#pack(KeyValues, String)}. It keeps the buffers used to decode a key, so validating
+ * keys one after the other with the same holder does not allocate. A holder is not thread safe: use one per thread.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class KeyValues {
+
+    private final KeySchema schema;
+
+    private final long[] values;
+
+    /**
+     * The bits of the last decoded key.
+     */
+    private final BitBuffer buffer = new BitBuffer(0);
+
+    /**
+     * Create a holder, all the values being 0.
+     *
+     * @param schema the layout
+     */
+    KeyValues(final KeySchema schema) {
+        this.schema = schema;
+        this.values = new long[schema.size()];
+    }
+
+    /**
+     * Gets the layout.
+     *
+     * @return see description
+     */
+    public KeySchema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param index the field index
+     * @return the value, unsigned
+     */
+    public long getLong(final int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Gets a value.
+     *
+     * @param name the field name
+     * @return the value, unsigned
+     */
+    public long getLong(final String name) {
+        return this.values[this.schema.indexOf(name)];
+    }
+
+    /**
+     * Gets a value that fits in an int.
+     *
+     * @param name the field name
+     * @return see description
+     * @throws ArithmeticException if the value does not fit in an int
+     */
+    public int getInt(final String name) {
+        long value = getLong(name);
+        if (value != (int) value) {
+            throw new ArithmeticException("field '" + name + "' does not fit in an int");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Gets the value of an enumerated field.
+     *
+     * @param name the field name
+     * @param type the enumeration
+     * @return the constant, null if the value is not the ordinal of a constant
+     */
+    public <E extends Enum<E>> E getEnum(final String name, final Class<E> type) {
+        int index = this.schema.indexOf(name);
+        return this.schema.getField(index).toConstant(type, this.values[index]);
+    }
+
+    /**
+     * Gets the value of a date field.
+     *
+     * @param name the field name
+     * @return the date (ms since 1970)
+     */
+    public long getTime(final String name) {
+        int index = this.schema.indexOf(name);
+        return this.schema.getField(index).toTime(this.values[index]);
+    }
+
+    /**
+     * Gets the value of a date field.
+     *
+     * @param name the field name
+     * @return see description
+     */
+    public Date getDate(final String name) {
+        return new Date(getTime(name));
+    }
+
+    /**
+     * Sets a value.
+     *
+     * @param index the field index
+     * @param value the value, unsigned
+     * @return this holder
+     * @throws IllegalArgumentException if the value does not fit in the field
+     */
+    public KeyValues setLong(final int index, final long value) {
+        KeySchema.Field field = this.schema.getField(index);
+        if ((value & ~field.max()) != 0) {
+            throw new IllegalArgumentException("field '" + field.getName() + "' cannot hold " + toUnsignedString(value));
+        }
+        this.values[index] = value;
+        return this;
+    }
+
+    /**
+     * Returns the decimal representation of an unsigned value.
+     *
+     * @param value the value
+     * @return see description
+     */
+    static String toUnsignedString(final long value) {
+        if (value >= 0) {
+            return Long.toString(value);
+        }
+        long quotient = (value >>> 1) / 5;
+        return Long.toString(quotient) + (value - quotient * 10);
+    }
+
+    /**
+     * Sets a value.
+     *
+     * @param name  the field name
+     * @param value the value, unsigned
+     * @return this holder
+     * @throws IllegalArgumentException if the value does not fit in the field
+     */
+    public KeyValues setLong(final String name, final long value) {
+        return setLong(this.schema.indexOf(name), value);
+    }
+
+    /**
+     * Sets the value of an enumerated field.
+     *
+     * @param name     the field name
+     * @param constant the constant
+     * @return this holder
+     */
+    public KeyValues setEnum(final String name, final Enum<?> constant) {
+        int index = this.schema.indexOf(name);
+        return setLong(index, this.schema.getField(index).fromConstant(constant));
+    }
+
+    /**
+     * Sets the value of a date field.
+     *
+     * @param name the field name
+     * @param time the date (ms since 1970)
+     * @return this holder
+     * @throws IllegalArgumentException if the date does not fit in the field
+     */
+    public KeyValues setTime(final String name, final long time) {
+        int index = this.schema.indexOf(name);
+        return setLong(index, this.schema.getField(index).fromTime(time));
+    }
+
+    /**
+     * Sets the value of a date field.
+     *
+     * @param name the field name
+     * @param date the date
+     * @return this holder
+     * @throws IllegalArgumentException if the date does not fit in the field
+     */
+    public KeyValues setDate(final String name, final Date date) {
+        return setTime(name, date.getTime());
+    }
+
+    /**
+     * Returns the values without copying them.
+     *
+     * @return see description
+     */
+    long[] values() {
+        return this.values;
+    }
+
+    /**
+     * Returns the buffer to decode the keys into.
+     *
+     * @return see description
+     */
+    BitBuffer buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "KeyValues{" +
+                "schema=" + schema +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
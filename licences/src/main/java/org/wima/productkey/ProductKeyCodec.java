@@ -0,0 +1,380 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+
+/**
+ * A precompiled, immutable product key decoder.
+ * <p/>
+ * Everything that only depends on the signature, the character set and the layout of the hidden values is computed
+ * once when the codec is built: the reverse character table and, for each field, the signature positions of all its
+ * copies. Decoding a key is then a straight table-driven loop. Instances are thread safe and can be shared.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ProductKeyCodec {
+
+    /**
+     * The reverse character table size (only ASCII characters can be part of a key).
+     */
+    private static final int TABLE_SIZE = 128;
+
+    private final char[] characters;
+
+    private final int bitsPerCharacter;
+
+    /**
+     * The character index for each ASCII character, -1 if it is not part of the character set.
+     */
+    private final byte[] reverse;
+
+    private final int[] sizes;
+
+    private final int passes;
+
+    /**
+     * True if a field is wider than 32 bits, the values can then only be decoded as longs.
+     */
+    private final boolean wide;
+
+    /**
+     * For each field, the signature positions of its bits, pass after pass.
+     */
+    private final int[][] gather;
+
+    /**
+     * The number of characters needed to hold the last signature position.
+     */
+    private final int minimumCharacters;
+
+    /**
+     * The number of characters of the issued keys, 0 if any key holding the signature positions is decoded.
+     */
+    private final int characterCount;
+
+    /**
+     * Build a codec.
+     *
+     * @param signature  the signature (positions of the hidden bits)
+     * @param characters the character set
+     * @param sizes      the size of each hidden value (bits)
+     */
+    public ProductKeyCodec(final int[] signature, final char[] characters, final int[] sizes) {
+        this(signature, characters, sizes, ProductKeyManagerImpl.PASSES);
+    }
+
+    /**
+     * Build a codec.
+     *
+     * @param signature  the signature (positions of the hidden bits)
+     * @param characters the character set
+     * @param sizes      the size of each hidden value (bits)
+     * @param passes     the number of times the values are stored in the key
+     */
+    public ProductKeyCodec(final int[] signature, final char[] characters, final int[] sizes, final int passes) {
+        this(signature, characters, sizes, passes, 0);
+    }
+
+    /**
+     * Build a codec only decoding keys of the issued length.
+     *
+     * @param signature      the signature (positions of the hidden bits)
+     * @param characters     the character set
+     * @param sizes          the size of each hidden value (bits)
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys, separators excluded (0 for any length)
+     */
+    public ProductKeyCodec(final int[] signature, final char[] characters, final int[] sizes, final int passes, final int characterCount) {
+        if (passes < 1) {
+            throw new IllegalArgumentException("the values must be stored at least once");
+        }
+        this.characters = characters.clone();
+        this.bitsPerCharacter = bitsPerCharacters(characters);
+        this.sizes = sizes.clone();
+        this.passes = passes;
+
+        this.reverse = new byte[TABLE_SIZE];
+        Arrays.fill(this.reverse, (byte) -1);
+        for (int i = 0; i < characters.length; i++) {
+            if (characters[i] >= TABLE_SIZE) {
+                throw new IllegalArgumentException("the character set must only contain ASCII characters");
+            }
+            this.reverse[characters[i]] = (byte) i;
+        }
+
+        int bitsPerPass = 0;
+        boolean wideField = false;
+        for (final int size : sizes) {
+            if (size < 0 || size > 64) {
+                throw new IllegalArgumentException("maximum information size is 64 bits");
+            }
+            wideField |= size > 32;
+            bitsPerPass += size;
+        }
+        this.wide = wideField;
+        if (signature.length < bitsPerPass * this.passes) {
+            throw new IllegalArgumentException("signature length must match the number of bits to hide * passes");
+        }
+
+        this.gather = new int[sizes.length][];
+        int offset = 0;
+        int last = -1;
+        for (int field = 0; field < sizes.length; field++) {
+            int[] positions = new int[sizes[field] * this.passes];
+            for (int pass = 0; pass < this.passes; pass++) {
+                System.arraycopy(signature, bitsPerPass * pass + offset, positions, sizes[field] * pass, sizes[field]);
+            }
+            for (final int position : positions) {
+                last = Math.max(last, position);
+            }
+            this.gather[field] = positions;
+            offset += sizes[field];
+        }
+        this.minimumCharacters = (last + this.bitsPerCharacter) / this.bitsPerCharacter;
+        this.characterCount = characterCount;
+    }
+
+    /**
+     * Calculates the bits per encoded characters.
+     *
+     * @param characters the character set
+     * @return see description
+     */
+    static int bitsPerCharacters(final char[] characters) {
+        return 32 - Integer.numberOfLeadingZeros(characters.length - 1);
+    }
+
+    /**
+     * Returns true if the character is a group separator (ignored when a key is decoded).
+     *
+     * @param c the character
+     * @return see description
+     */
+    static boolean isSeparator(final char c) {
+        return c == '-' || c == ' ';
+    }
+
+    /**
+     * Check whether this codec decodes the specified layout.
+     *
+     * @param sizes the size of each hidden value (bits)
+     * @return true if the layout matches
+     */
+    public boolean accepts(final int[] sizes) {
+        return Arrays.equals(this.sizes, sizes);
+    }
+
+    /**
+     * Check whether this codec decodes the specified layout.
+     *
+     * @param sizes  the size of each hidden value (bits)
+     * @param passes the number of times the values are stored in the key
+     * @return true if the layout matches
+     */
+    public boolean accepts(final int[] sizes, final int passes) {
+        return this.passes == passes && Arrays.equals(this.sizes, sizes);
+    }
+
+    /**
+     * Check whether this codec decodes the specified layout and key length.
+     *
+     * @param sizes          the size of each hidden value (bits)
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys (0 for any length)
+     * @return true if the layout matches
+     */
+    public boolean accepts(final int[] sizes, final int passes, final int characterCount) {
+        return this.characterCount == characterCount && accepts(sizes, passes);
+    }
+
+    /**
+     * Gets the number of times the values are stored in the key.
+     *
+     * @return see description
+     */
+    public int getPasses() {
+        return this.passes;
+    }
+
+    /**
+     * Decode the hidden values.
+     *
+     * @param key  the key, separators are skipped
+     * @param salt the salt to add
+     * @return the values, or null if the key length is invalid or the redundancy check failed
+     * @throws IllegalArgumentException if the key contains a character out of the character set
+     */
+    public int[] decode(final CharSequence key, final byte[] salt) {
+        return decode(key, new Salt(salt));
+    }
+
+    /**
+     * Decode the hidden values.
+     *
+     * @param key  the key, separators are skipped
+     * @param salt the salt to add
+     * @return the values, or null if the key length is invalid or the redundancy check failed
+     * @throws IllegalArgumentException if the key contains a character out of the character set
+     */
+    public int[] decode(final CharSequence key, final Salt salt) {
+        int[] values = new int[this.sizes.length];
+        switch (decode(key, salt, values)) {
+            case ILLEGAL_CHARACTER:
+                throw new IllegalArgumentException("illegal character");
+            case INVALID_LENGTH:
+            case REDUNDANCY_MISMATCH:
+                return null;
+            default:
+                return values;
+        }
+    }
+
+    /**
+     * Decode the hidden values without throwing nor allocating the result.
+     * <p/>
+     * The copies of each field are compared while they are gathered, so a tampered key is usually rejected on its
+     * very first field.
+     *
+     * @param key    the key, separators are skipped
+     * @param salt   the salt to add
+     * @param values receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     */
+    public KeyStatus decode(final CharSequence key, final Salt salt, final int[] values) {
+        return decode(key, 0, salt, values);
+    }
+
+    /**
+     * Decode the hidden values of the key starting at the specified character.
+     *
+     * @param key    the key, separators are skipped
+     * @param start  the index of the first character to decode
+     * @param salt   the salt to add
+     * @param values receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     * @throws IllegalStateException if a field is wider than 32 bits
+     */
+    public KeyStatus decode(final CharSequence key, final int start, final Salt salt, final int[] values) {
+        if (this.wide) {
+            throw new IllegalStateException("a field is wider than 32 bits, the values must be decoded as longs");
+        }
+        BitBuffer buffer = new BitBuffer(0);
+        KeyStatus loaded = load(key, start, salt, buffer);
+        if (loaded != KeyStatus.VALID) {
+            return loaded;
+        }
+
+        for (int field = 0; field < this.sizes.length; field++) {
+            int[] positions = this.gather[field];
+            int size = this.sizes[field];
+            int first = 0;
+            for (int bit = 0; bit < size; bit++) {
+                first = (first << 1) | buffer.bit(positions[bit]);
+            }
+            for (int position = size; position < positions.length; ) {
+                int copy = 0;
+                for (int bit = 0; bit < size; bit++) {
+                    copy = (copy << 1) | buffer.bit(positions[position++]);
+                }
+                if (copy != first) {
+                    // mismatch !
+                    return KeyStatus.REDUNDANCY_MISMATCH;
+                }
+            }
+            values[field] = first;
+        }
+        return KeyStatus.VALID;
+    }
+
+    /**
+     * Decode the hidden values of the key starting at the specified character, fields being up to 64 bits wide.
+     *
+     * @param key    the key, separators are skipped
+     * @param start  the index of the first character to decode
+     * @param salt   the salt to add
+     * @param values receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     */
+    public KeyStatus decode(final CharSequence key, final int start, final Salt salt, final long[] values) {
+        return decode(key, start, salt, new BitBuffer(0), values);
+    }
+
+    /**
+     * Decode the hidden values into a reusable buffer, so that nothing is allocated.
+     *
+     * @param key    the key, separators are skipped
+     * @param start  the index of the first character to decode
+     * @param salt   the salt to add
+     * @param buffer receives the key bits
+     * @param values receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     */
+    KeyStatus decode(final CharSequence key, final int start, final Salt salt, final BitBuffer buffer, final long[] values) {
+        KeyStatus loaded = load(key, start, salt, buffer);
+        if (loaded != KeyStatus.VALID) {
+            return loaded;
+        }
+
+        for (int field = 0; field < this.sizes.length; field++) {
+            int[] positions = this.gather[field];
+            int size = this.sizes[field];
+            long first = 0;
+            for (int bit = 0; bit < size; bit++) {
+                first = (first << 1) | buffer.bit(positions[bit]);
+            }
+            for (int position = size; position < positions.length; ) {
+                long copy = 0;
+                for (int bit = 0; bit < size; bit++) {
+                    copy = (copy << 1) | buffer.bit(positions[position++]);
+                }
+                if (copy != first) {
+                    // mismatch !
+                    return KeyStatus.REDUNDANCY_MISMATCH;
+                }
+            }
+            values[field] = first;
+        }
+        return KeyStatus.VALID;
+    }
+
+    /**
+     * Load the bits of the key characters in the buffer and add the salt.
+     *
+     * @param key    the key, separators are skipped
+     * @param start  the index of the first character to decode
+     * @param salt   the salt to add
+     * @param buffer receives the key bits
+     * @return {@link KeyStatus#VALID} once loaded, {@link KeyStatus#INVALID_LENGTH} if the key does not have the
+     * issued length (or is too short to hold the signature positions) or {@link KeyStatus#ILLEGAL_CHARACTER} if it
+     * contains a character out of the character set
+     */
+    private KeyStatus load(final CharSequence key, final int start, final Salt salt, final BitBuffer buffer) {
+        int length = key.length();
+        int characters = 0;
+        for (int i = start; i < length; i++) {
+            if (!isSeparator(key.charAt(i))) {
+                characters++;
+            }
+        }
+        if (characters < this.minimumCharacters || (this.characterCount != 0 && characters != this.characterCount)) {
+            return KeyStatus.INVALID_LENGTH;
+        }
+        buffer.reset(characters * this.bitsPerCharacter);
+        int offset = 0;
+        for (int i = start; i < length; i++) {
+            char c = key.charAt(i);
+            if (isSeparator(c)) {
+                continue;
+            }
+            int characterIndex = c < TABLE_SIZE ? this.reverse[c] : -1;
+            if (characterIndex < 0) {
+                return KeyStatus.ILLEGAL_CHARACTER;
+            }
+            buffer.write(offset, characterIndex, this.bitsPerCharacter);
+            offset += this.bitsPerCharacter;
+        }
+
+        buffer.xor(salt.mask(buffer.length()));
+        return KeyStatus.VALID;
+    }
+
+}
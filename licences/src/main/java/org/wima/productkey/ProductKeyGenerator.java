@@ -1,6 +1,9 @@
 package org.wima.productkey;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -10,6 +13,50 @@ import java.util.*;
  */
 public abstract class ProductKeyGenerator extends ProductKeyManagerImpl {
 
+    /**
+     * The number of requests read from the source and issued in parallel at once.
+     */
+    public static final int ISSUANCE_BATCH_SIZE = 4096;
+
+    /**
+     * Below this number of keys, a batch is no longer split between workers.
+     */
+    private static final int ISSUANCE_THRESHOLD = 64;
+
+    /**
+     * The source of the random bits.
+     */
+    private volatile EntropySource entropy = EntropySource.threadLocal();
+
+    /**
+     * Default constructor.
+     */
+    public ProductKeyGenerator() {
+        super();
+    }
+
+    /**
+     * Create a generator for the specified character set.
+     *
+     * @param characters the character set
+     */
+    public ProductKeyGenerator(final char[] characters) {
+        super(characters);
+    }
+
+    /**
+     * Sets the source of the random bits used by {@link #pack} and {@link #randomize}. The default one is fast but
+     * predictable, use {@link EntropySource#secure()} to issue production keys.
+     *
+     * @param entropy the source of the random bits
+     */
+    public void setEntropySource(final EntropySource entropy) {
+        if (entropy == null) {
+            throw new IllegalArgumentException("entropy cannot be null");
+        }
+        this.entropy = entropy;
+    }
+
     /**
      * Pack the information in a licence key.
      *
@@ -22,79 +69,153 @@ public abstract class ProductKeyGenerator extends ProductKeyManagerImpl {
      * @return see description.
      */
     public String pack(final int[] values, final int[] sizes, final int characterCount, final byte[] salt, final int passes, final boolean showStatistics) {
-
-        boolean[] toHide = new boolean[0];
-
-        for (int i = 0; i < values.length; i++) {
-            toHide = addAll(toHide, toUnsignedString(values[i], sizes[i]));
+        ProductKeySignature current = getSignature();
+        if (!current.isLoaded()) {
+            // let's generate !
+            int bitsToHide = 0;
+            for (final int size : sizes) {
+                bitsToHide += size;
+            }
+            randomize(bitsToHide * passes, characterCount);
+            current = getSignature();
         }
+        return pack(current, values, sizes, characterCount, new Salt(salt), passes, showStatistics);
+    }
 
-        boolean[] salted = new boolean[0];
-        for (int i = 0; i < salt.length; i++) {
-            salted = addAll(salted, toUnsignedString(salt[i], 8));
-        }
+    /**
+     * Pack the information in a licence key.
+     *
+     * @param current        the signature
+     * @param values         the values to hide
+     * @param sizes          the size of the values
+     * @param characterCount the expected licence key size (characters)
+     * @param salt           the salt to add
+     * @param passes         the number of passes
+     * @param showStatistics show some statistics and warning if the key is overloaded
+     * @return see description.
+     */
+    String pack(final ProductKeySignature current, final int[] values, final int[] sizes, final int characterCount, final Salt salt, final int passes, final boolean showStatistics) {
 
         int bitsToHide = 0;
         for (final int size : sizes) {
+            if (size > 32) {
+                throw new IllegalArgumentException("maximum information size is 32 bits");
+            }
             bitsToHide += size;
         }
 
-        int bitsToHidePerPass = bitsToHide;
-        bitsToHide *= passes;
+        BitBuffer toHide = new BitBuffer(bitsToHide);
+        int offset = 0;
+        for (int i = 0; i < values.length; i++) {
+            toHide.write(offset, values[i], sizes[i]);
+            offset += sizes[i];
+        }
+        return pack(current, toHide, characterCount, salt, passes, showStatistics);
+    }
 
-        if (this.signature == null) {
+    /**
+     * Pack the information in a licence key, the values being laid out by their schema. The key is hidden with the
+     * current signature, {@link #getPasses()} passes and {@link #getKeyLength()} characters, as
+     * {@link #unpack(CharSequence, String, KeyValues)} expects.
+     *
+     * @param values the values to hide
+     * @param owner  the key owner
+     * @return see description.
+     */
+    public String pack(final KeyValues values, final String owner) {
+        int characterCount = getKeyLength();
+        KeySchema schema = values.getSchema();
+        ProductKeySignature current = getSignature();
+        if (!current.isLoaded()) {
             // let's generate !
-            randomize(bitsToHide, characterCount);
+            randomize(schema.getBits(), characterCount);
+            current = getSignature();
+        }
+        BitBuffer toHide = new BitBuffer(schema.getBits());
+        int offset = 0;
+        for (int i = 0; i < schema.size(); i++) {
+            toHide.write(offset, values.getLong(i), schema.sizes()[i]);
+            offset += schema.sizes()[i];
         }
-        if (this.signature.length < bitsToHide) {
+        return pack(current, toHide, characterCount, getSaltCache().get(owner), getPasses(), false);
+    }
+
+    /**
+     * Pack bits in a licence key.
+     *
+     * @param current        the signature
+     * @param toHide         the bits to hide (one pass)
+     * @param characterCount the expected licence key size (characters)
+     * @param salt           the salt to add
+     * @param passes         the number of passes
+     * @param showStatistics show some statistics and warning if the key is overloaded
+     * @return see description.
+     */
+    private String pack(final ProductKeySignature current, final BitBuffer toHide, final int characterCount, final Salt salt, final int passes, final boolean showStatistics) {
+        int bitsToHidePerPass = toHide.length();
+        int bitsToHide = bitsToHidePerPass * passes;
+
+        if (current.length() < bitsToHide) {
             throw new IllegalArgumentException("signature length must match the number of bits to hide * passes");
         }
-        int bitsPerCharacter = bitsPerCharacters(this.characters);
+        int[] signature = current.positions();
+        char[] characters = current.characters();
+        int bitsPerCharacter = current.getBitsPerCharacter();
 
-        boolean[] buffer = new boolean[characterCount * bitsPerCharacter];
+        BitBuffer buffer = new BitBuffer(characterCount * bitsPerCharacter);
 
         if (showStatistics) {
             int freeSlots = (characterCount * bitsPerCharacter - bitsToHide);
-            int ratio = (100 * (buffer.length - freeSlots) / buffer.length);
-            System.out.println(ratio + "% of bits holds licence information (" + (buffer.length - freeSlots) + "/" + buffer.length + ")");
+            int ratio = (100 * (buffer.length() - freeSlots) / buffer.length());
+            System.out.println(ratio + "% of bits holds licence information (" + (buffer.length() - freeSlots) + "/" + buffer.length() + ")");
             System.out.println(freeSlots + " random bits (2^" + freeSlots + " keys for a licence)");
             if (ratio > 40) {
                 System.err.println("be careful, a useful bits ratio > 40% makes the pattern much easier to guess. Ideally, should be around 30%");
             }
         }
 
-        Random random = new Random();
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = random.nextBoolean();
-        }
+        buffer.fillRandom(this.entropy);
 
         // hide the message into the buffer respecting the signature
         for (int pass = 0; pass < passes; pass++) {
-            for (int i = 0; i < toHide.length; i++) {
-                buffer[this.signature[bitsToHidePerPass * pass + i]] = toHide[i];
+            for (int i = 0; i < toHide.length(); i++) {
+                buffer.set(signature[bitsToHidePerPass * pass + i], toHide.get(i));
             }
         }
 
+        // add a bit of salt in there !
+        buffer.xor(salt.mask(buffer.length()));
+
         // flatten in a string
-        StringBuilder encoded = new StringBuilder();
-        int saltIndex = 0;
-        for (int i = 0; i < buffer.length; i += bitsPerCharacter) {
-            int characterIndex = 0;
-            for (int j = i; j < i + bitsPerCharacter; j++) {
-                characterIndex <<= 1;
-                saltIndex = saltIndex % salted.length;
-                // add a bit of salt in there !
-                if (salted[saltIndex++] ^ buffer[j]) {
-                    characterIndex++;
-                }
-            }
-            encoded.append(this.characters[characterIndex]);
+        StringBuilder encoded = new StringBuilder(characterCount);
+        for (int i = 0; i < buffer.length(); i += bitsPerCharacter) {
+            encoded.append(characters[(int) buffer.read(i, bitsPerCharacter)]);
         }
 
-
         return encoded.toString();
     }
 
+    /**
+     * Pack the information in a versioned licence key: the key starts with the version and the information is hidden
+     * with the signature registered for this version.
+     *
+     * @param registry       the signature versions
+     * @param version        the version
+     * @param values         the values to hide
+     * @param sizes          the size of the values
+     * @param characterCount the expected licence key size (characters, version included)
+     * @param salt           the salt to add
+     * @param passes         the number of passes
+     * @return see description.
+     */
+    public String pack(final ProductKeyRegistry registry, final int version, final int[] values, final int[] sizes, final int characterCount, final byte[] salt, final int passes) {
+        ProductKeySignature versioned = registry.get(version);
+        if (versioned == null) {
+            throw new IllegalArgumentException("version " + version + " is not registered");
+        }
+        return registry.versionCharacter(version) + pack(versioned, values, sizes, characterCount - 1, new Salt(salt), passes, false);
+    }
+
     /**
      * Randomize a new signature.
      *
@@ -102,30 +223,148 @@ public abstract class ProductKeyGenerator extends ProductKeyManagerImpl {
      * @param keyLength  the licence key length (characters)
      */
     public void randomize(final int secretSize, final int keyLength) {
-        int signatureSize = secretSize * PASSES;
+        int signatureSize = secretSize * getPasses();
 
-        int availableSlots = bitsPerCharacters(this.characters) * keyLength;
+        int availableSlots = getSignature().getBitsPerCharacter() * keyLength;
         if (signatureSize > availableSlots) {
             // we need more slots to hide the message
             throw new IllegalArgumentException("there are more bits to hide than available bits in the key");
         }
-        Random random = new Random();
-        this.signature = new int[signatureSize];
+        EntropySource random = this.entropy;
+        int[] slots = new int[availableSlots];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        // partial Fisher-Yates: the first signatureSize slots end up randomly chosen and ordered
+        int[] generatedSignature = new int[signatureSize];
+        for (int i = 0; i < signatureSize; i++) {
+            int picked = i + random.nextInt(availableSlots - i);
+            int slot = slots[picked];
+            slots[picked] = slots[i];
+            slots[i] = slot;
+            generatedSignature[i] = slot;
+        }
+        setSignature(generatedSignature);
+    }
 
-        Set<Integer> generated = new HashSet<>();
-        while (generated.size() < this.signature.length) {
-            generated.add(random.nextInt(availableSlots));
+    /**
+     * Issue a key for each request, the keys being generated on the given pool. Each key is unpacked right after its
+     * generation to ensure it is valid. The keys are given to the sink in the order of the requests.
+     *
+     * @param requests the requests
+     * @param sizes    the size of the values
+     * @param sink     receives the keys
+     * @param pool     the pool generating the keys
+     * @return the issuance statistics
+     * @throws IOException if the sink fails
+     */
+    public IssuanceReport issue(final Iterator<KeyRequest> requests, final int[] sizes, final KeySink sink, final ForkJoinPool pool) throws IOException {
+        return issue(requests, sizes, sink, pool, null);
+    }
+
+    /**
+     * Issue a key for each request, as {@link #issue(Iterator, int[], KeySink, ForkJoinPool)} does, but never issue
+     * the same key twice: the fingerprint of each key is checked against the ones already issued and the key is
+     * generated again in case of collision.
+     *
+     * @param requests the requests
+     * @param sizes    the size of the values
+     * @param sink     receives the keys
+     * @param pool     the pool generating the keys
+     * @param issued   the fingerprints of the keys already issued, updated with the new keys (null to allow duplicates)
+     * @return the issuance statistics
+     * @throws IOException if the sink fails
+     */
+    public IssuanceReport issue(final Iterator<KeyRequest> requests, final int[] sizes, final KeySink sink, final ForkJoinPool pool, final KeyFingerprintSet issued) throws IOException {
+        if (!getSignature().isLoaded()) {
+            // let's generate before the workers need it !
+            int bitsToHide = 0;
+            for (final int size : sizes) {
+                bitsToHide += size;
+            }
+            randomize(bitsToHide, getKeyLength());
         }
-        List<Integer> shuffled = new ArrayList<>(generated);
-        Collections.shuffle(shuffled);
-        StringBuilder serialized = new StringBuilder();
+        // the whole run uses the same signature, even if it is reloaded meanwhile
+        ProductKeySignature signature = getSignature();
 
-        int idx = 0;
-        for (final Integer integer : shuffled) {
-            this.signature[idx++] = integer;
-            serialized.append(String.format("%02x", integer));
+        long start = System.nanoTime();
+        long count = 0;
+        long regenerated = 0;
+        KeyRequest[] batch = new KeyRequest[ISSUANCE_BATCH_SIZE];
+        String[] keys = new String[ISSUANCE_BATCH_SIZE];
+        while (requests.hasNext()) {
+            int size = 0;
+            while (size < batch.length && requests.hasNext()) {
+                batch[size++] = requests.next();
+            }
+            pool.invoke(new IssuanceTask(signature, sizes, batch, keys, 0, size));
+            for (int i = 0; i < size; i++) {
+                if (issued != null) {
+                    while (!issued.add(KeyFingerprint.of(keys[i]))) {
+                        keys[i] = issue(signature, sizes, batch[i]);
+                        regenerated++;
+                    }
+                }
+                sink.accept(batch[i], keys[i]);
+                batch[i] = null;
+                keys[i] = null;
+            }
+            count += size;
+        }
+        return new IssuanceReport(count, System.nanoTime() - start, regenerated);
+    }
+
+    /**
+     * Generate a key and unpack it to ensure it is valid.
+     *
+     * @param signature the signature
+     * @param sizes     the size of the values
+     * @param request   the request
+     * @return the key
+     */
+    private String issue(final ProductKeySignature signature, final int[] sizes, final KeyRequest request) {
+        Salt salt = getSaltCache().get(request.getOwner());
+        String key = pack(signature, request.values(), sizes, getKeyLength(), salt, getPasses(), false);
+        // try to unpack to ensure it is valid
+        if (!Arrays.equals(request.values(), signature.codec(sizes, getPasses(), getValidatedKeyLength()).decode(key, salt))) {
+            throw new IllegalArgumentException("unable to unpack values");
+        }
+        return key;
+    }
+
+    /**
+     * Generates the keys of a range of requests, splitting it while it is large enough.
+     */
+    private final class IssuanceTask extends RecursiveAction {
+
+        private final ProductKeySignature signature;
+        private final int[] sizes;
+        private final KeyRequest[] requests;
+        private final String[] keys;
+        private final int from;
+        private final int to;
+
+        IssuanceTask(final ProductKeySignature signature, final int[] sizes, final KeyRequest[] requests, final String[] keys, final int from, final int to) {
+            this.signature = signature;
+            this.sizes = sizes;
+            this.requests = requests;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > ISSUANCE_THRESHOLD) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new IssuanceTask(this.signature, this.sizes, this.requests, this.keys, this.from, middle),
+                        new IssuanceTask(this.signature, this.sizes, this.requests, this.keys, middle, this.to));
+                return;
+            }
+            for (int i = this.from; i < this.to; i++) {
+                this.keys[i] = issue(this.signature, this.sizes, this.requests[i]);
+            }
         }
-        System.out.println("signature : " + serialized);
     }
 
     public static void generate(final ProductKeyGenerator pp, final String message, final String owner, final int[] values, final int[] sizes) {
@@ -160,6 +399,7 @@ public abstract class ProductKeyGenerator extends ProductKeyManagerImpl {
         int numberOfBits = /* sumOf(sizes) */ 16;
         if (args.length == 1 && args[0].equals("-generate")) {
             pp.randomize(numberOfBits, KEY_LENGTH);
+            System.out.println("signature : " + pp.getSignature().serialize());
         } else {
             // as we are not running a CDI, force the initialization
             pp.initialize();
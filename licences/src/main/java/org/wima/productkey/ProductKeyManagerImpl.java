@@ -4,9 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
-import java.lang.reflect.Array;
-import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -39,11 +43,63 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      */
     public static final int KEY_LENGTH = 35;
 
+    /**
+     * The number of keys read from the source and validated in parallel at once.
+     */
+    public static final int VALIDATION_BATCH_SIZE = 4096;
+
+    /**
+     * Below this number of keys, a batch is no longer split between workers.
+     */
+    private static final int VALIDATION_THRESHOLD = 256;
+
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProductKeyManagerImpl.class);
 
-    protected int[] signature;
-    protected char[] characters;
+    /**
+     * A brute force attempt must not turn into one log line per rejected key.
+     */
+    private static final RateLimitedLog REDUNDANCY_FAILURES = new RateLimitedLog(LOGGER, "redundancy check failed", 1, TimeUnit.SECONDS);
+
+    private static final RateLimitedLog UNKNOWN_VERSIONS = new RateLimitedLog(LOGGER, "unknown key version", 1, TimeUnit.SECONDS);
+
+    private static final RateLimitedLog REVOKED_KEYS = new RateLimitedLog(LOGGER, "revoked key", 1, TimeUnit.SECONDS);
+
+    private static final RateLimitedLog INVALID_LENGTHS = new RateLimitedLog(LOGGER, "invalid key length", 1, TimeUnit.SECONDS);
+
+    private static final RateLimitedLog ILLEGAL_CHARACTERS = new RateLimitedLog(LOGGER, "illegal character", 1, TimeUnit.SECONDS);
+
+    /**
+     * The pool validating the batches when none is given, shared by all the managers.
+     */
+    private static final class SharedPool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    /**
+     * The current signature, replaced as a whole on reload.
+     */
+    private volatile ProductKeySignature signature;
+
+    /**
+     * The salt of the most recent owners.
+     */
+    private final SaltCache saltCache = new SaltCache(SaltCache.DEFAULT_CAPACITY);
+
+    /**
+     * The revoked keys, null if revocation is not checked.
+     */
+    private volatile RevocationIndex revocations;
+
+    /**
+     * The signature versions, null if keys are not versioned.
+     */
+    private volatile ProductKeyRegistry registry;
+
+    /**
+     * Receives the outcome of the validations, null if not measured.
+     */
+    private volatile ProductKeyMetrics metrics = new ProductKeyStatistics();
 
     /**
      * Default constructor.
@@ -56,8 +112,7 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      * This is used when CDI is not available and for test purpose.
      */
     public ProductKeyManagerImpl(final char[] characters) {
-        this.characters = characters;
-        validate();
+        this.signature = new ProductKeySignature(null, characters);
     }
 
 
@@ -77,47 +132,52 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
     }
 
     /**
-     * Ensure the character set is well-formed.
+     * Reload the signature returned by {@link #getLicenceSignature()} on the given executor. Validations keep using
+     * the previous signature until the new one is ready.
+     *
+     * @param executor the executor building the new signature
+     * @return the new signature, once published
      */
-    private void validate() {
-        int bitPerCharacters = bitsPerCharacters(this.characters);
-        if (1 << bitPerCharacters > this.characters.length) {
-            throw new IllegalArgumentException("the character set must contains a number of character that is a power of 2 (" + (1 << bitPerCharacters) + " but is only " + this.characters.length + ")");
-        }
+    public Future<ProductKeySignature> reloadSignature(final ExecutorService executor) {
+        return executor.submit(new Callable<ProductKeySignature>() {
+            @Override
+            public ProductKeySignature call() {
+                return reloadSignature(getLicenceSignature());
+            }
+        });
     }
 
+    /**
+     * Replace the signature. The new signature is fully built before being published at once, the validations in
+     * progress complete with the signature they started with.
+     *
+     * @param serialized the serialized signature
+     * @return the new signature
+     */
+    public ProductKeySignature reloadSignature(final String serialized) {
+        ProductKeySignature loaded = ProductKeySignature.parse(serialized, this.signature.characters());
+        this.signature = loaded;
+        return loaded;
+    }
 
     /**
-     * Calculates the bits per encoded characters.
+     * Gets the current signature.
      *
-     * @param characters the character set
      * @return see description
      */
-    public int bitsPerCharacters(final char[] characters) {
-        int toSplit = Integer.highestOneBit(characters.length - 1);
-        int result = 0;
-        while (toSplit != 0) {
-            result++;
-            toSplit >>= 1;
-        }
-        return result;
+    public ProductKeySignature getSignature() {
+        return this.signature;
     }
 
+
     /**
-     * Convert the integer to an array of boolean representing the bits.
+     * Calculates the bits per encoded characters.
+     *
+     * @param characters the character set
+     * @return see description
      */
-    protected boolean[] toUnsignedString(final int i, final int length) {
-        if (length > 32) {
-            throw new IllegalArgumentException("maximum information size is 32 bits");
-        }
-        boolean[] buffer = new boolean[length];
-        int mask = 1;
-        int position = length - 1;
-        do {
-            buffer[position--] = (i & mask) != 0;
-            mask <<= 1;
-        } while (position >= 0);
-        return buffer;
+    public int bitsPerCharacters(final char[] characters) {
+        return ProductKeyCodec.bitsPerCharacters(characters);
     }
 
     /**
@@ -127,8 +187,9 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      * @return the position or -1 if not found
      */
     public int lookup(final char c) {
-        for (int i = 0; i < this.characters.length; i++) {
-            if (this.characters[i] == c) {
+        char[] characters = this.signature.characters();
+        for (int i = 0; i < characters.length; i++) {
+            if (characters[i] == c) {
                 return i;
             }
         }
@@ -140,12 +201,34 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      */
     @Override
     public byte[] salt(final String toHash) {
-        try {
-            return MessageDigest.getInstance("SHA-1").digest(toHash.getBytes("UTF-8"));
-        } catch (Exception e) {
-            // ignore...
-        }
-        return new byte[]{0};
+        return this.saltCache.get(toHash).getBytes();
+    }
+
+    /**
+     * Sets the revoked keys. The index is swapped at once: the validations in progress complete with the previous one.
+     *
+     * @param revocations the revoked keys (null to stop checking revocation)
+     */
+    public void setRevocationIndex(final RevocationIndex revocations) {
+        this.revocations = revocations;
+    }
+
+    /**
+     * Gets the revoked keys.
+     *
+     * @return the revoked keys, null if revocation is not checked
+     */
+    public RevocationIndex getRevocationIndex() {
+        return this.revocations;
+    }
+
+    /**
+     * Gets the owners salt cache (mainly to monitor the hit / miss counters).
+     *
+     * @return see description
+     */
+    public SaltCache getSaltCache() {
+        return this.saltCache;
     }
 
     /**
@@ -153,92 +236,378 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      */
     @Override
     public int[] unpack(final String key, final byte[] salt, final int[] sizes) {
-        int passes = PASSES;
-        int bitPerCharacters = bitsPerCharacters(this.characters);
-        boolean[] buffer = new boolean[0];
-        char[] keyAsChars = normalize(key).toCharArray();
-        for (int i = 0; i < keyAsChars.length; i++) {
-            int characterIndex = lookup(keyAsChars[i]);
-            if (characterIndex == -1) {
-                throw new IllegalArgumentException("illegal character");
-            }
+        return unpack((CharSequence) key, salt, sizes);
+    }
+
+    /**
+     * Unpack the information from the key
+     *
+     * @param key   the key, formatted or not (a {@link java.nio.CharBuffer} can wrap a slice of a request buffer)
+     * @param salt  the salt to add
+     * @param sizes the size of expected data
+     * @return see description
+     */
+    public int[] unpack(final CharSequence key, final byte[] salt, final int[] sizes) {
+        return unpack(key, new Salt(salt), sizes);
+    }
 
-            buffer = addAll(buffer, toUnsignedString(characterIndex, bitPerCharacters));
+    /**
+     * Unpack the information from the key, the salt of the owner being cached.
+     *
+     * @param key   the key, formatted or not
+     * @param owner the key owner
+     * @param sizes the size of expected data
+     * @return see description
+     */
+    public int[] unpack(final CharSequence key, final String owner, final int[] sizes) {
+        return unpack(key, this.saltCache.get(owner), sizes);
+    }
+
+    /**
+     * Unpack the information from the key into a reusable holder, without allocating. Failures are reported through
+     * the outcome only.
+     *
+     * @param key    the key, formatted or not
+     * @param owner  the key owner
+     * @param values receives the values, laid out by their schema (only meaningful if the key is valid)
+     * @return the outcome
+     */
+    public KeyStatus unpack(final CharSequence key, final String owner, final KeyValues values) {
+        ProductKeyMetrics measured = this.metrics;
+        long start = measured == null ? 0 : System.nanoTime();
+        Salt salt = this.saltCache.get(owner);
+        ProductKeyRegistry versions = this.registry;
+        KeyStatus status;
+        if (versions == null) {
+            status = codec(values.getSchema().sizes()).decode(key, 0, salt, values.buffer(), values.values());
+        } else {
+            status = versions.decode(key, salt, getPasses(), getValidatedKeyLength(), values);
         }
+        RevocationIndex revoked = this.revocations;
+        if (status == KeyStatus.VALID && revoked != null
+                && revoked.contains(KeyFingerprint.of(salt, version(key), values.getSchema().sizes(), values.values()))) {
+            status = KeyStatus.REVOKED;
+        }
+        return completed(status, measured, start);
+    }
 
-        boolean[] salted = new boolean[0];
-        for (int i = 0; i < salt.length; i++) {
-            salted = addAll(salted, toUnsignedString(salt[i], 8));
+    /**
+     * Unpack the information from the key.
+     *
+     * @param key   the key
+     * @param salt  the salt to add
+     * @param sizes the size of expected data
+     * @return see description
+     */
+    private int[] unpack(final CharSequence key, final Salt salt, final int[] sizes) {
+        int[] unpacked = new int[sizes.length];
+        switch (validate(key, salt, sizes, unpacked)) {
+            case ILLEGAL_CHARACTER:
+                ILLEGAL_CHARACTERS.error();
+                return null;
+            case REVOKED:
+                REVOKED_KEYS.error();
+                return null;
+            case UNKNOWN_VERSION:
+                UNKNOWN_VERSIONS.error();
+                return null;
+            case INVALID_LENGTH:
+                INVALID_LENGTHS.error();
+                return null;
+            case REDUNDANCY_MISMATCH:
+                REDUNDANCY_FAILURES.error();
+                return null;
+            default:
+                return unpacked;
         }
+    }
 
-        int saltIndex = 0;
-        for (int i = 0; i < buffer.length; i++) {
-            saltIndex = saltIndex % salted.length;
-            buffer[i] = salted[saltIndex++] ^ buffer[i];
+    /**
+     * Decode the key, check it has not been revoked and report the outcome to the metrics.
+     *
+     * @param key    the key
+     * @param salt   the salt to add
+     * @param sizes  the size of expected data
+     * @param values receives the values
+     * @return the outcome
+     */
+    private KeyStatus validate(final CharSequence key, final Salt salt, final int[] sizes, final int[] values) {
+        ProductKeyMetrics measured = this.metrics;
+        long start = measured == null ? 0 : System.nanoTime();
+        KeyStatus status = decode(key, salt, sizes, values);
+        RevocationIndex revoked = this.revocations;
+        if (status == KeyStatus.VALID && revoked != null && revoked.contains(KeyFingerprint.of(salt, version(key), sizes, values))) {
+            status = KeyStatus.REVOKED;
         }
+        return completed(status, measured, start);
+    }
 
-        int[][] unpacked = new int[passes][];
-
-        int bitsToGuessPerPass = 0;
-        for (int i = 0; i < sizes.length; bitsToGuessPerPass += sizes[i++]) ;
-
-        for (int pass = 0; pass < passes; pass++) {
-            int[] result = new int[sizes.length];
-            int offset = 0;
-            for (int i = 0; i < sizes.length; i++) {
-                int value = 0;
-                for (int bit = offset; bit < offset + sizes[i]; bit++) {
-                    value <<= 1;
-                    if (buffer[this.signature[bitsToGuessPerPass * pass + bit]]) {
-                        value++;
-                    }
+    /**
+     * Compute the fingerprint of a valid key, to be written in a {@link RevocationIndex}. The fingerprint only depends
+     * on the owner, the version and the values of the key: every key holding them has the same fingerprint.
+     *
+     * @param key   the key, formatted or not
+     * @param owner the key owner
+     * @param sizes the size of expected data
+     * @return see description
+     * @throws IllegalArgumentException if the key is not valid
+     */
+    public long fingerprint(final CharSequence key, final String owner, final int[] sizes) {
+        Salt salt = this.saltCache.get(owner);
+        int[] values = new int[sizes.length];
+        KeyStatus status = decode(key, salt, sizes, values);
+        if (status != KeyStatus.VALID) {
+            throw new IllegalArgumentException("the key is not valid (" + status + ")");
+        }
+        return KeyFingerprint.of(salt, version(key), sizes, values);
+    }
+
+    /**
+     * Returns the version of a key.
+     *
+     * @param key the key
+     * @return see description, -1 if keys are not versioned
+     */
+    private int version(final CharSequence key) {
+        ProductKeyRegistry versions = this.registry;
+        return versions == null ? -1 : versions.versionOf(key);
+    }
+
+    /**
+     * Report the outcome of a validation to the metrics.
+     *
+     * @param status   the outcome
+     * @param measured the metrics (null if not measured)
+     * @param start    the time the validation started (ns)
+     * @return the outcome
+     */
+    private KeyStatus completed(final KeyStatus status, final ProductKeyMetrics measured, final long start) {
+        if (measured != null) {
+            measured.validated(status, System.nanoTime() - start);
+        }
+        return status;
+    }
+
+    /**
+     * Sets the validation metrics.
+     *
+     * @param metrics receives the outcome of each validation (null to stop measuring)
+     */
+    public void setMetrics(final ProductKeyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the validation metrics, a {@link ProductKeyStatistics} unless replaced.
+     *
+     * @return the validation metrics, null if not measured
+     */
+    public ProductKeyMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Decode the key with the current signature, or with the signature of its version if keys are versioned.
+     *
+     * @param key    the key
+     * @param salt   the salt to add
+     * @param sizes  the size of expected data
+     * @param values receives the values
+     * @return the outcome
+     */
+    private KeyStatus decode(final CharSequence key, final Salt salt, final int[] sizes, final int[] values) {
+        ProductKeyRegistry versions = this.registry;
+        if (versions == null) {
+            return codec(sizes).decode(key, salt, values);
+        }
+        return versions.decode(key, salt, sizes, getPasses(), getValidatedKeyLength(), values);
+    }
+
+    /**
+     * Sets the signature versions. Once set, every key is expected to start with its version and is decoded with the
+     * signature registered for it, {@link #getLicenceSignature()} being no longer used to validate keys.
+     *
+     * @param registry the signature versions (null for keys without version)
+     */
+    public void setRegistry(final ProductKeyRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Gets the signature versions.
+     *
+     * @return the signature versions, null for keys without version
+     */
+    public ProductKeyRegistry getRegistry() {
+        return this.registry;
+    }
+
+    /**
+     * Validate a batch of keys using all the available cores, on a pool shared by all the managers. Failures are
+     * reported through the results only (they are neither logged nor thrown).
+     *
+     * @param checks   the keys to validate
+     * @param listener receives each result in the order of the keys (can be null if only the counts matter)
+     * @return the number of keys per status
+     */
+    public ValidationReport unpackAll(final Iterator<KeyCheck> checks, final ValidationListener listener) {
+        return unpackAll(checks, listener, SharedPool.POOL);
+    }
+
+    /**
+     * Validate a batch of keys on the given pool. A key whose sizes cannot be decoded is reported as
+     * {@link KeyStatus#INVALID_LAYOUT}, the other keys of the batch are still validated.
+     *
+     * @param checks   the keys to validate
+     * @param listener receives each result in the order of the keys (can be null if only the counts matter)
+     * @param pool     the pool validating the keys
+     * @return the number of keys per status
+     */
+    public ValidationReport unpackAll(final Iterator<KeyCheck> checks, final ValidationListener listener, final ForkJoinPool pool) {
+        long start = System.nanoTime();
+        long[] counts = new long[KeyStatus.values().length];
+        KeyCheck[] batch = new KeyCheck[VALIDATION_BATCH_SIZE];
+        ValidationResult[] results = new ValidationResult[VALIDATION_BATCH_SIZE];
+        while (checks.hasNext()) {
+            int size = 0;
+            while (size < batch.length && checks.hasNext()) {
+                batch[size++] = checks.next();
+            }
+            pool.invoke(new ValidationTask(batch, results, 0, size));
+            for (int i = 0; i < size; i++) {
+                counts[results[i].getStatus().ordinal()]++;
+                if (listener != null) {
+                    listener.validated(results[i]);
                 }
-                result[i] = value;
-                offset += sizes[i];
+                batch[i] = null;
+                results[i] = null;
             }
-            unpacked[pass] = result;
         }
+        return new ValidationReport(counts, System.nanoTime() - start);
+    }
 
-        if (unpacked.length == 1) {
-            // no redundancy check
-        } else {
-            for (int i = 0; i < unpacked.length - 1; i++) {
-                for (int j = 0; j < unpacked[i].length; j++) {
-                    if (unpacked[i][j] != unpacked[i + 1][j]) {
-                        // mismatch !
-                        LOGGER.error("redundancy check failed");
-                        return null;
-                    }
+    /**
+     * Validates a range of keys, splitting it while it is large enough.
+     */
+    private final class ValidationTask extends RecursiveAction {
+
+        private final KeyCheck[] checks;
+        private final ValidationResult[] results;
+        private final int from;
+        private final int to;
+
+        ValidationTask(final KeyCheck[] checks, final ValidationResult[] results, final int from, final int to) {
+            this.checks = checks;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > VALIDATION_THRESHOLD) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ValidationTask(this.checks, this.results, this.from, middle),
+                        new ValidationTask(this.checks, this.results, middle, this.to));
+                return;
+            }
+            for (int i = this.from; i < this.to; i++) {
+                KeyCheck check = this.checks[i];
+                int[] values = new int[check.getSizes().length];
+                KeyStatus status;
+                try {
+                    status = validate(check.getKey(), saltCache.get(check.getOwner()), check.getSizes(), values);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // the codec rejects the layout: only this key fails
+                    status = KeyStatus.INVALID_LAYOUT;
                 }
+                this.results[i] = new ValidationResult(check, status, status == KeyStatus.VALID ? values : null);
             }
         }
-        return unpacked[0];
     }
 
     /**
-     * Normalize the licence key by removing separators.
+     * Returns the codec of the current signature for the specified layout.
      *
-     * @param key the key
-     * @return see description.
+     * @param sizes the size of expected data
+     * @return see description
+     */
+    protected ProductKeyCodec codec(final int[] sizes) {
+        return this.signature.codec(sizes, getPasses(), getValidatedKeyLength());
+    }
+
+    /**
+     * Returns the number of times the information are stored in the licence key. Override to use a different
+     * redundancy than {@link #PASSES}.
+     *
+     * @return see description
+     */
+    protected int getPasses() {
+        return PASSES;
+    }
+
+    /**
+     * Returns the number of characters of the issued keys, separators excluded and version included. Override to issue
+     * keys of a different length than {@link #KEY_LENGTH}.
+     *
+     * @return see description
+     */
+    protected int getKeyLength() {
+        return KEY_LENGTH;
+    }
+
+    /**
+     * Returns the number of characters the validated keys must have, separators excluded and version included. The
+     * default, 0, accepts any length holding the hidden values, so that keys issued with another length keep being
+     * valid. Override, returning {@link #getKeyLength()} for instance, to reject keys of any other length.
+     *
+     * @return see description, 0 for any length
      */
-    private String normalize(final String key) {
-        return key.replaceAll("-| ", "");
+    protected int getValidatedKeyLength() {
+        return 0;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public String formatKey(final String key, final int groupSize) {
-        StringBuilder builder = new StringBuilder();
-        String normalized = normalize(key);
-        for (int i = 0; i < normalized.length(); i += groupSize) {
-            builder.append(normalized.substring(i, Math.min(i + groupSize, normalized.length())));
-            if (i + groupSize < normalized.length()) {
-                builder.append("-");
+    public String formatKey(final String key, final int packetSize) {
+        return formatKey((CharSequence) key, packetSize);
+    }
+
+    /**
+     * Return a formatted version of the key.
+     *
+     * @param key       the key to format
+     * @param groupSize the packet size
+     * @return see description
+     */
+    public String formatKey(final CharSequence key, final int groupSize) {
+        StringBuilder builder = new StringBuilder(key.length() + key.length() / Math.max(1, groupSize));
+        formatKey(key, groupSize, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Append a formatted version of the key.
+     *
+     * @param key       the key to format
+     * @param groupSize the packet size
+     * @param formatted receives the formatted key
+     */
+    public void formatKey(final CharSequence key, final int groupSize, final StringBuilder formatted) {
+        int written = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (ProductKeyCodec.isSeparator(c)) {
+                continue;
             }
+            if (written > 0 && written % groupSize == 0) {
+                formatted.append('-');
+            }
+            formatted.append(c);
+            written++;
         }
-        return builder.toString();
     }
 
     /**
@@ -247,32 +616,19 @@ public abstract class ProductKeyManagerImpl implements ProductKeyManager {
      * @param serialized the serialized signature
      */
     protected void loadSignature(final String serialized) {
-        if (serialized.length() % 2 != 0) {
-            throw new IllegalArgumentException("signature length does not match");
-        }
-        this.signature = new int[serialized.length() / 2];
-
-        for (int i = 0; i < serialized.length(); i += 2) {
-            this.signature[i / 2] = Integer.parseInt(serialized.substring(i, i + 2), 16);
-        }
+        reloadSignature(serialized);
     }
 
-
-    /* - this is copied from Apache commons -------------------------------------------------- */
-
-    protected boolean[] addAll(boolean[] array1, boolean[] array2) {
-        if (array1 == null) {
-            return array2;
-        } else if (array2 == null) {
-            return array1;
-        }
-        boolean[] joinedArray = (boolean[]) Array.newInstance(array1.getClass().getComponentType(),
-                array1.length + array2.length);
-        System.arraycopy(array1, 0, joinedArray, 0, array1.length);
-        System.arraycopy(array2, 0, joinedArray, array1.length, array2.length);
-        return joinedArray;
+    /**
+     * Replace the signature, keeping the character set.
+     *
+     * @param positions the positions of the hidden bits
+     */
+    protected void setSignature(final int[] positions) {
+        this.signature = this.signature.withPositions(positions);
     }
 
+
     public static void main(String... args) {
         ProductKeyManager pp = new ProductKeyManagerImpl() {
             @Override
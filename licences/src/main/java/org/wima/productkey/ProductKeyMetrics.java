@@ -0,0 +1,19 @@
+package org.wima.productkey;
+
+/**
+ * Receives the outcome of each key validation. Implementations are called from the validating threads and must be
+ * thread safe and cheap.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public interface ProductKeyMetrics {
+
+    /**
+     * Called once per validated key.
+     *
+     * @param status       the outcome
+     * @param elapsedNanos the time spent validating the key (ns)
+     */
+    void validated(KeyStatus status, long elapsedNanos);
+
+}
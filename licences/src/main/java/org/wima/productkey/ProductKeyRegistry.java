@@ -0,0 +1,205 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A registry of signature versions, so that keys issued with a previous signature keep being valid after a rotation.
+ * <p/>
+ * The first character of a versioned key holds the version (its index in the registry character set) and is not
+ * salted; the remaining characters are a regular key of the corresponding signature. Finding the signature of a key is
+ * a table lookup, whatever the number of versions.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ProductKeyRegistry {
+
+    private final char[] characters;
+
+    /**
+     * The version for each ASCII character, -1 if it is not part of the character set.
+     */
+    private final byte[] reverse;
+
+    private final AtomicReferenceArray<ProductKeySignature> versions;
+
+    /**
+     * Create a registry handling up to 32 versions.
+     */
+    public ProductKeyRegistry() {
+        this(ProductKeyManagerImpl.CHARACTERS_32);
+    }
+
+    /**
+     * Create a registry, as many versions as characters being available.
+     *
+     * @param characters the characters encoding the version
+     */
+    public ProductKeyRegistry(final char[] characters) {
+        this.characters = characters.clone();
+        this.reverse = new byte[128];
+        Arrays.fill(this.reverse, (byte) -1);
+        for (int i = 0; i < characters.length; i++) {
+            if (characters[i] >= this.reverse.length || ProductKeyCodec.isSeparator(characters[i])) {
+                throw new IllegalArgumentException("the version characters must be ASCII and cannot be separators");
+            }
+            this.reverse[characters[i]] = (byte) i;
+        }
+        this.versions = new AtomicReferenceArray<>(characters.length);
+    }
+
+    /**
+     * Register (or replace) a version.
+     *
+     * @param version   the version
+     * @param signature the signature of the keys of this version
+     */
+    public void register(final int version, final ProductKeySignature signature) {
+        checkVersion(version);
+        if (signature == null || !signature.isLoaded()) {
+            throw new IllegalArgumentException("the signature must be loaded");
+        }
+        this.versions.set(version, signature);
+    }
+
+    /**
+     * Remove a version, its keys are no longer valid.
+     *
+     * @param version the version
+     */
+    public void unregister(final int version) {
+        checkVersion(version);
+        this.versions.set(version, null);
+    }
+
+    /**
+     * Gets the signature of a version.
+     *
+     * @param version the version
+     * @return the signature, null if the version is not registered
+     */
+    public ProductKeySignature get(final int version) {
+        checkVersion(version);
+        return this.versions.get(version);
+    }
+
+    /**
+     * Returns the character starting the keys of a version.
+     *
+     * @param version the version
+     * @return see description
+     */
+    public char versionCharacter(final int version) {
+        checkVersion(version);
+        return this.characters[version];
+    }
+
+    private void checkVersion(final int version) {
+        if (version < 0 || version >= this.characters.length) {
+            throw new IllegalArgumentException("version must be in [0, " + this.characters.length + "[");
+        }
+    }
+
+    /**
+     * Decode the hidden values of a versioned key.
+     *
+     * @param key    the key, separators are skipped
+     * @param salt   the salt to add
+     * @param sizes  the size of each hidden value (bits)
+     * @param passes the number of times the values are stored in the key
+     * @param values receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     */
+    public KeyStatus decode(final CharSequence key, final Salt salt, final int[] sizes, final int passes, final int[] values) {
+        return decode(key, salt, sizes, passes, 0, values);
+    }
+
+    /**
+     * Decode the hidden values of a versioned key of the issued length.
+     *
+     * @param key            the key, separators are skipped
+     * @param salt           the salt to add
+     * @param sizes          the size of each hidden value (bits)
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys, version included (0 for any length)
+     * @param values         receives the values (one per field), only meaningful if the key is valid
+     * @return the outcome
+     */
+    public KeyStatus decode(final CharSequence key, final Salt salt, final int[] sizes, final int passes, final int characterCount, final int[] values) {
+        int start = versionIndex(key);
+        ProductKeySignature signature = start < 0 ? null : signatureOf(key.charAt(start));
+        if (signature == null) {
+            return KeyStatus.UNKNOWN_VERSION;
+        }
+        return signature.codec(sizes, passes, withoutVersion(characterCount)).decode(key, start + 1, salt, values);
+    }
+
+    /**
+     * Decode the hidden values of a versioned key into a reusable holder.
+     *
+     * @param key    the key, separators are skipped
+     * @param salt   the salt to add
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys, version included (0 for any length)
+     * @param values         receives the values, only meaningful if the key is valid
+     * @return the outcome
+     */
+    KeyStatus decode(final CharSequence key, final Salt salt, final int passes, final int characterCount, final KeyValues values) {
+        int start = versionIndex(key);
+        ProductKeySignature signature = start < 0 ? null : signatureOf(key.charAt(start));
+        if (signature == null) {
+            return KeyStatus.UNKNOWN_VERSION;
+        }
+        return signature.codec(values.getSchema().sizes(), passes, withoutVersion(characterCount))
+                .decode(key, start + 1, salt, values.buffer(), values.values());
+    }
+
+    /**
+     * Returns the number of characters following the version.
+     *
+     * @param characterCount the number of characters of the issued keys, version included (0 for any length)
+     * @return see description
+     */
+    private static int withoutVersion(final int characterCount) {
+        return characterCount == 0 ? 0 : characterCount - 1;
+    }
+
+    /**
+     * Returns the version of a key.
+     *
+     * @param key the key, separators are skipped
+     * @return see description, -1 if the key does not start with a version character
+     */
+    int versionOf(final CharSequence key) {
+        int start = versionIndex(key);
+        char c = start < 0 ? 0 : key.charAt(start);
+        return start < 0 || c >= this.reverse.length ? -1 : this.reverse[c];
+    }
+
+    /**
+     * Returns the index of the version character (the first one that is not a separator).
+     *
+     * @param key the key
+     * @return see description, -1 if the key is empty
+     */
+    private static int versionIndex(final CharSequence key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (!ProductKeyCodec.isSeparator(key.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the signature registered for a version character.
+     *
+     * @param c the version character
+     * @return see description, null if unknown
+     */
+    private ProductKeySignature signatureOf(final char c) {
+        int version = c < this.reverse.length ? this.reverse[c] : -1;
+        return version < 0 ? null : this.versions.get(version);
+    }
+
+}
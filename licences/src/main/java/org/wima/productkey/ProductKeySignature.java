@@ -0,0 +1,273 @@
+package org.wima.productkey;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable snapshot of a product key signature and of the character set it applies to.
+ * <p/>
+ * A manager never modifies its snapshot, it publishes a new one: a validation that started with a snapshot sees a
+ * consistent signature until it completes, even if the signature is reloaded in the meantime.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ProductKeySignature {
+
+    /**
+     * Starts a signature whose positions are written with more than 2 hexadecimal digits.
+     */
+    public static final char WIDE_MARKER = 'w';
+
+    /**
+     * The number of layouts whose codec is kept, the least recently built one being dropped first.
+     */
+    private static final int MAX_CODECS = 16;
+
+    /**
+     * The positions of the hidden bits, null if no signature has been loaded yet.
+     */
+    private final int[] positions;
+
+    private final char[] characters;
+
+    private final int bitsPerCharacter;
+
+    /**
+     * The codecs of the layouts used so far, most recently built first. The array is never modified, it is replaced
+     * as a whole when a layout is added.
+     */
+    private final AtomicReference<ProductKeyCodec[]> codecs = new AtomicReference<>(new ProductKeyCodec[0]);
+
+    /**
+     * Create a snapshot.
+     *
+     * @param positions  the positions of the hidden bits (null if not loaded yet)
+     * @param characters the character set
+     */
+    public ProductKeySignature(final int[] positions, final char[] characters) {
+        this.positions = positions == null ? null : positions.clone();
+        this.characters = characters.clone();
+        this.bitsPerCharacter = ProductKeyCodec.bitsPerCharacters(characters);
+        if (1 << this.bitsPerCharacter > this.characters.length) {
+            throw new IllegalArgumentException("the character set must contains a number of character that is a power of 2 (" + (1 << this.bitsPerCharacter) + " but is only " + this.characters.length + ")");
+        }
+    }
+
+    /**
+     * Parse a serialized signature.
+     * <p/>
+     * Two formats are supported: the historical one, where each position is written with 2 hexadecimal digits, and the
+     * one used when a position does not fit in a byte, where the signature starts with {@link #WIDE_MARKER} followed by
+     * the number of hexadecimal digits per position.
+     *
+     * @param serialized the serialized signature
+     * @param characters the character set
+     * @return the snapshot
+     */
+    public static ProductKeySignature parse(final String serialized, final char[] characters) {
+        int width = 2;
+        int start = 0;
+        if (serialized.length() > 0 && serialized.charAt(0) == WIDE_MARKER) {
+            if (serialized.length() < 2) {
+                throw new IllegalArgumentException("signature length does not match");
+            }
+            width = hexDigit(serialized.charAt(1));
+            start = 2;
+        }
+        if (width == 0 || (serialized.length() - start) % width != 0) {
+            throw new IllegalArgumentException("signature length does not match");
+        }
+        int[] loaded = new int[(serialized.length() - start) / width];
+
+        int index = start;
+        for (int i = 0; i < loaded.length; i++) {
+            int position = 0;
+            for (int digit = 0; digit < width; digit++) {
+                position = (position << 4) | hexDigit(serialized.charAt(index++));
+            }
+            loaded[i] = position;
+        }
+        return new ProductKeySignature(loaded, characters);
+    }
+
+    /**
+     * Returns the value of an hexadecimal digit.
+     *
+     * @param c the digit
+     * @return see description
+     */
+    private static int hexDigit(final char c) {
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw new IllegalArgumentException("invalid signature character '" + c + "'");
+        }
+        return digit;
+    }
+
+    /**
+     * Serialize the signature so that {@link #parse(String, char[])} can read it. The historical 2 digits format is used
+     * as long as all the positions fit in a byte.
+     *
+     * @return see description
+     */
+    public String serialize() {
+        if (this.positions == null) {
+            throw new IllegalStateException("the signature has not been loaded");
+        }
+        int highest = 0;
+        for (final int position : this.positions) {
+            highest |= position;
+        }
+        int width = Math.max(1, (32 - Integer.numberOfLeadingZeros(highest) + 3) / 4);
+        StringBuilder serialized = new StringBuilder(2 + this.positions.length * Math.max(2, width));
+        if (width > 2) {
+            serialized.append(WIDE_MARKER).append(Character.forDigit(width, 16));
+        } else {
+            width = 2;
+        }
+        for (final int position : this.positions) {
+            for (int shift = (width - 1) * 4; shift >= 0; shift -= 4) {
+                serialized.append(Character.forDigit((position >>> shift) & 0xF, 16));
+            }
+        }
+        return serialized.toString();
+    }
+
+    /**
+     * Returns a snapshot with the same character set and the specified positions.
+     *
+     * @param positions the positions of the hidden bits
+     * @return see description
+     */
+    public ProductKeySignature withPositions(final int[] positions) {
+        return new ProductKeySignature(positions, this.characters);
+    }
+
+    /**
+     * Returns true if the positions are known.
+     *
+     * @return see description
+     */
+    public boolean isLoaded() {
+        return this.positions != null;
+    }
+
+    /**
+     * Gets the number of hidden bits positions.
+     *
+     * @return see description
+     */
+    public int length() {
+        return this.positions == null ? 0 : this.positions.length;
+    }
+
+    /**
+     * Returns the positions without copying them, they must not be modified.
+     *
+     * @return see description
+     */
+    int[] positions() {
+        return this.positions;
+    }
+
+    /**
+     * Returns the character set without copying it, it must not be modified.
+     *
+     * @return see description
+     */
+    char[] characters() {
+        return this.characters;
+    }
+
+    /**
+     * Gets the character set.
+     *
+     * @return a copy of the character set
+     */
+    public char[] getCharacters() {
+        return this.characters.clone();
+    }
+
+    /**
+     * Gets the bits per encoded characters.
+     *
+     * @return see description
+     */
+    public int getBitsPerCharacter() {
+        return this.bitsPerCharacter;
+    }
+
+    /**
+     * Returns the codec for the specified layout, building it the first time the layout is used.
+     *
+     * @param sizes the size of expected data
+     * @return see description
+     */
+    public ProductKeyCodec codec(final int[] sizes) {
+        return codec(sizes, ProductKeyManagerImpl.PASSES);
+    }
+
+    /**
+     * Returns the codec for the specified layout, building it the first time the layout is used.
+     *
+     * @param sizes  the size of expected data
+     * @param passes the number of times the values are stored in the key
+     * @return see description
+     */
+    public ProductKeyCodec codec(final int[] sizes, final int passes) {
+        return codec(sizes, passes, 0);
+    }
+
+    /**
+     * Returns the codec for the specified layout and key length, building it the first time they are used. Up to
+     * {@value #MAX_CODECS} codecs are kept, so that callers alternating between layouts do not rebuild them.
+     *
+     * @param sizes          the size of expected data
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys, separators excluded (0 for any length)
+     * @return see description
+     */
+    public ProductKeyCodec codec(final int[] sizes, final int passes, final int characterCount) {
+        if (this.positions == null) {
+            throw new IllegalStateException("the signature has not been loaded");
+        }
+        ProductKeyCodec known = find(this.codecs.get(), sizes, passes, characterCount);
+        if (known != null) {
+            return known;
+        }
+        ProductKeyCodec built = new ProductKeyCodec(this.positions, this.characters, sizes, passes, characterCount);
+        while (true) {
+            ProductKeyCodec[] current = this.codecs.get();
+            known = find(current, sizes, passes, characterCount);
+            if (known != null) {
+                // built by another thread meanwhile
+                return known;
+            }
+            int kept = Math.min(current.length, MAX_CODECS - 1);
+            ProductKeyCodec[] updated = new ProductKeyCodec[kept + 1];
+            updated[0] = built;
+            System.arraycopy(current, 0, updated, 1, kept);
+            if (this.codecs.compareAndSet(current, updated)) {
+                return built;
+            }
+        }
+    }
+
+    /**
+     * Returns the codec decoding the specified layout and key length.
+     *
+     * @param codecs         the codecs to search
+     * @param sizes          the size of expected data
+     * @param passes         the number of times the values are stored in the key
+     * @param characterCount the number of characters of the issued keys (0 for any length)
+     * @return see description, null if none
+     */
+    private static ProductKeyCodec find(final ProductKeyCodec[] codecs, final int[] sizes, final int passes, final int characterCount) {
+        for (final ProductKeyCodec codec : codecs) {
+            if (codec.accepts(sizes, passes, characterCount)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+}
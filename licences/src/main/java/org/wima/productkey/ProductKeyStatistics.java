@@ -0,0 +1,96 @@
+package org.wima.productkey;
+
+/**
+ * Counts the validations per outcome and records their latency in a histogram with power of 2 buckets.
+ * <p/>
+ * Counters are striped by thread (see {@link StripedCounters}), so concurrent validations rarely write to the same
+ * cache line.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ProductKeyStatistics implements ProductKeyMetrics {
+
+    /**
+     * The number of latency buckets, bucket <code>i</code> counting latencies in [2^i, 2^(i+1)[ ns.
+     */
+    public static final int BUCKETS = 40;
+
+    private static final int STATUSES = KeyStatus.values().length;
+
+    private final StripedCounters counters = new StripedCounters(STATUSES + BUCKETS);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void validated(final KeyStatus status, final long elapsedNanos) {
+        this.counters.increment(status.ordinal());
+        this.counters.increment(STATUSES + bucket(elapsedNanos));
+    }
+
+    private static int bucket(final long elapsedNanos) {
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, elapsedNanos)));
+    }
+
+    /**
+     * Gets the number of validations with the specified outcome.
+     *
+     * @param status the outcome
+     * @return see description
+     */
+    public long getCount(final KeyStatus status) {
+        return this.counters.sum(status.ordinal());
+    }
+
+    /**
+     * Gets the latency histogram.
+     *
+     * @return the number of validations per bucket, bucket <code>i</code> counting latencies in [2^i, 2^(i+1)[ ns
+     */
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = this.counters.sum(STATUSES + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns an upper bound of the latency quantile (for instance 0.99 for the 99th percentile).
+     *
+     * @param quantile the quantile, in [0, 1]
+     * @return the upper bound of the bucket holding the quantile (ns), 0 if nothing was recorded
+     */
+    public long getLatencyQuantile(final double quantile) {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && histogram[i] > 0) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKETS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ProductKeyStatistics{");
+        for (final KeyStatus status : KeyStatus.values()) {
+            builder.append(status).append('=').append(getCount(status)).append(", ");
+        }
+        return builder.append("p50<").append(getLatencyQuantile(0.5)).append("ns")
+                .append(", p99<").append(getLatencyQuantile(0.99)).append("ns}").toString();
+    }
+}
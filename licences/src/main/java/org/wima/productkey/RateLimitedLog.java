@@ -0,0 +1,57 @@
+package org.wima.productkey;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs a message at most once per period, counting the occurrences that were not logged.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+final class RateLimitedLog {
+
+    private final Logger logger;
+
+    private final String message;
+
+    private final long periodNanos;
+
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Create the log.
+     *
+     * @param logger  the logger
+     * @param message the message
+     * @param period  the minimum period between two messages
+     * @param unit    the period unit
+     */
+    RateLimitedLog(final Logger logger, final String message, final long period, final TimeUnit unit) {
+        this.logger = logger;
+        this.message = message;
+        this.periodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * Log the message at ERROR level, unless it has been logged less than a period ago.
+     */
+    void error() {
+        long now = System.nanoTime();
+        long allowed = this.next.get();
+        if (now - allowed < 0 || !this.next.compareAndSet(allowed, now + this.periodNanos)) {
+            this.suppressed.incrementAndGet();
+            return;
+        }
+        long skipped = this.suppressed.getAndSet(0);
+        if (skipped == 0) {
+            this.logger.error(this.message);
+        } else {
+            this.logger.error("{} ({} similar messages suppressed)", this.message, skipped);
+        }
+    }
+
+}
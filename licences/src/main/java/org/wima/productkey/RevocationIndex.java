@@ -0,0 +1,192 @@
+package org.wima.productkey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An immutable index of revoked keys.
+ * <p/>
+ * The index file is a sorted sequence of 64 bits key fingerprints, big endian, without any header. A key is revoked by
+ * its content (see {@link ProductKeyManagerImpl#fingerprint(CharSequence, String, int[])}): changing its filler
+ * characters, its length or its formatting does not make a revoked key valid again, and every key of the same owner
+ * holding the same values is revoked with it. The file is memory-mapped and searched by dichotomy; a Bloom filter
+ * built when the file is opened answers most of the lookups of keys that are not revoked without touching the file.
+ * <p/>
+ * To revoke new keys, write a new index with {@link #write(Path, long[])} and swap it in the manager with
+ * {@link ProductKeyManagerImpl#setRevocationIndex(RevocationIndex)}: the validations in progress complete with the
+ * index they started with.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class RevocationIndex {
+
+    /**
+     * The Bloom filter size (bits per revoked key).
+     */
+    private static final int BLOOM_BITS_PER_KEY = 10;
+
+    /**
+     * The number of Bloom filter probes.
+     */
+    private static final int BLOOM_HASHES = 5;
+
+    private final LongBuffer fingerprints;
+
+    private final int size;
+
+    private final long[] bloom;
+
+    private final long bloomBits;
+
+    private RevocationIndex(final LongBuffer fingerprints) {
+        this.fingerprints = fingerprints;
+        this.size = fingerprints.limit();
+        this.bloomBits = Math.max(64L, (long) this.size * BLOOM_BITS_PER_KEY);
+        this.bloom = new long[(int) ((this.bloomBits + 63) >>> 6)];
+
+        long previous = 0;
+        for (int i = 0; i < this.size; i++) {
+            long fingerprint = fingerprints.get(i);
+            if (i > 0 && fingerprint <= previous) {
+                throw new IllegalArgumentException("the revocation index must be sorted without duplicates");
+            }
+            previous = fingerprint;
+            for (int probe = 0; probe < BLOOM_HASHES; probe++) {
+                long bit = bloomBit(fingerprint, probe);
+                this.bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Open (memory-map) an index file.
+     *
+     * @param file the index file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public static RevocationIndex open(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length % 8 != 0) {
+                throw new IOException("invalid revocation index size (" + length + " bytes)");
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("the revocation index is too large to be mapped (" + length + " bytes)");
+            }
+            // the mapping remains valid once the channel is closed
+            return new RevocationIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, length).asLongBuffer());
+        }
+    }
+
+    /**
+     * Create an index from fingerprints held in memory (mostly for small lists and tests).
+     *
+     * @param fingerprints the fingerprints of the revoked keys
+     * @return the index
+     */
+    public static RevocationIndex of(final long[] fingerprints) {
+        return new RevocationIndex(LongBuffer.wrap(sortedDistinct(fingerprints)));
+    }
+
+    /**
+     * Write an index file. The file is written aside and then moved in place, so that a concurrent {@link #open(Path)}
+     * either reads the previous file or the new one.
+     *
+     * @param file         the index file
+     * @param fingerprints the fingerprints of the revoked keys
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final Path file, final long[] fingerprints) throws IOException {
+        long[] sorted = sortedDistinct(fingerprints);
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                for (final long fingerprint : sorted) {
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        buffer.clear();
+                    }
+                    buffer.putLong(fingerprint);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static long[] sortedDistinct(final long[] fingerprints) {
+        long[] sorted = fingerprints.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    private long bloomBit(final long fingerprint, final int probe) {
+        long h1 = fingerprint & 0xFFFFFFFFL;
+        long h2 = fingerprint >>> 32;
+        return (h1 + probe * h2) % this.bloomBits;
+    }
+
+    /**
+     * Check whether the index holds the fingerprint.
+     *
+     * @param fingerprint the key fingerprint
+     * @return see description
+     */
+    public boolean contains(final long fingerprint) {
+        for (int probe = 0; probe < BLOOM_HASHES; probe++) {
+            long bit = bloomBit(fingerprint, probe);
+            if ((this.bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = this.fingerprints.get(middle);
+            if (value < fingerprint) {
+                low = middle + 1;
+            } else if (value > fingerprint) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of revoked keys.
+     *
+     * @return see description
+     */
+    public int size() {
+        return this.size;
+    }
+
+}
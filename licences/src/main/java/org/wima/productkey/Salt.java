@@ -0,0 +1,60 @@
+package org.wima.productkey;
+
+/**
+ * The salt of a product key owner, with its bits already expanded to XOR the key buffer.
+ * <p/>
+ * The expanded mask only depends on the salt bytes, a longer mask starting with the exact same bits as a shorter one.
+ * It is therefore computed once, on the first use, and only rebuilt if a longer key shows up.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class Salt {
+
+    private final byte[] bytes;
+
+    private volatile BitBuffer mask;
+
+    /**
+     * Create a salt.
+     *
+     * @param bytes the salt bytes
+     */
+    public Salt(final byte[] bytes) {
+        this.bytes = bytes.clone();
+    }
+
+    /**
+     * Gets the salt bytes.
+     *
+     * @return a copy of the salt bytes.
+     */
+    public byte[] getBytes() {
+        return this.bytes.clone();
+    }
+
+    /**
+     * Returns the salt bytes without copying them, they must not be modified.
+     *
+     * @return see description
+     */
+    byte[] bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Returns the salt bits repeated over at least <code>length</code> bits. The returned buffer must not be modified.
+     *
+     * @param length the number of bits needed
+     * @return see description
+     */
+    BitBuffer mask(final int length) {
+        BitBuffer current = this.mask;
+        if (current == null || current.length() < length) {
+            current = new BitBuffer(length);
+            current.fillCyclic(this.bytes);
+            this.mask = current;
+        }
+        return current;
+    }
+
+}
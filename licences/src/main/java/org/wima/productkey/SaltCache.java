@@ -0,0 +1,216 @@
+package org.wima.productkey;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size bounded cache of the owners salt, an approximation of the least recently used owner being evicted first.
+ * <p/>
+ * A hit is a concurrent map read, no lock is taken: the entry is only marked as used (second chance / CLOCK
+ * eviction). When a miss makes the cache exceed its capacity, a single thread sweeps the entries, removing the ones not
+ * used since the previous sweep, until an eighth of the capacity is free again. The cache may briefly hold more owners
+ * than its capacity while the sweep runs.
+ * <p/>
+ * On a miss, the SHA-1 of the owner is computed with a digest instance owned by the calling thread.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class SaltCache {
+
+    /**
+     * The default number of owners kept in the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * One digest per thread, null if SHA-1 is not available.
+     */
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    /**
+     * The salt of a null owner.
+     */
+    private static final Salt NO_OWNER = new Salt(new byte[]{0});
+
+    private static final int HITS = 0;
+
+    private static final int MISSES = 1;
+
+    private final ConcurrentMap<String, Entry> salts = new ConcurrentHashMap<>();
+
+    private final int capacity;
+
+    /**
+     * The number of owners, kept apart as the concurrent map size is not a constant time operation.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * The iterator the sweeps resume from, only used by the evicting thread.
+     */
+    private Iterator<Map.Entry<String, Entry>> hand;
+
+    /**
+     * The hits and misses.
+     */
+    private final StripedCounters counters = new StripedCounters(2);
+
+    /**
+     * A cached salt and its second chance flag.
+     */
+    private static final class Entry {
+
+        private final Salt salt;
+
+        private volatile boolean used;
+
+        Entry(final Salt salt) {
+            this.salt = salt;
+        }
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity the maximum number of owners kept
+     */
+    public SaltCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Compute the salt of the specified owner.
+     *
+     * @param owner the owner (can be null)
+     * @return the SHA-1 of the owner, or {0} if the owner is null or SHA-1 is not available
+     */
+    public static byte[] digest(final String owner) {
+        MessageDigest digest = DIGESTS.get();
+        if (digest == null || owner == null) {
+            return new byte[]{0};
+        }
+        return digest.digest(owner.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the salt of the specified owner.
+     *
+     * @param owner the owner (the salt of a null owner is {0}, it is not cached)
+     * @return see description
+     */
+    public Salt get(final String owner) {
+        if (owner == null) {
+            return NO_OWNER;
+        }
+        Entry entry = this.salts.get(owner);
+        if (entry != null) {
+            if (!entry.used) {
+                // only write when needed, so that hot entries are not written on every hit
+                entry.used = true;
+            }
+            this.counters.increment(HITS);
+            return entry.salt;
+        }
+        this.counters.increment(MISSES);
+        entry = new Entry(new Salt(digest(owner)));
+        Entry previous = this.salts.putIfAbsent(owner, entry);
+        if (previous != null) {
+            // computed concurrently by another thread
+            return previous.salt;
+        }
+        if (this.size.incrementAndGet() > this.capacity) {
+            evict();
+        }
+        return entry.salt;
+    }
+
+    /**
+     * Sweep the entries until an eighth of the capacity is free, unless another thread already does.
+     */
+    private void evict() {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int target = this.capacity - (this.capacity >>> 3);
+            while (this.size.get() > target) {
+                if (this.hand == null || !this.hand.hasNext()) {
+                    this.hand = this.salts.entrySet().iterator();
+                    if (!this.hand.hasNext()) {
+                        // cleared meanwhile
+                        return;
+                    }
+                }
+                Map.Entry<String, Entry> candidate = this.hand.next();
+                Entry entry = candidate.getValue();
+                if (entry.used) {
+                    entry.used = false;
+                } else if (this.salts.remove(candidate.getKey(), entry)) {
+                    this.size.decrementAndGet();
+                }
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    /**
+     * Remove all the owners.
+     */
+    public void clear() {
+        for (final String owner : this.salts.keySet()) {
+            if (this.salts.remove(owner) != null) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of owners currently cached.
+     *
+     * @return see description
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Gets the number of lookups served from the cache.
+     *
+     * @return see description
+     */
+    public long getHits() {
+        return this.counters.sum(HITS);
+    }
+
+    /**
+     * Gets the number of lookups that had to compute the salt.
+     *
+     * @return see description
+     */
+    public long getMisses() {
+        return this.counters.sum(MISSES);
+    }
+
+}
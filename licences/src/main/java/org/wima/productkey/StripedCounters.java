@@ -0,0 +1,55 @@
+package org.wima.productkey;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A table of counters striped by thread: each thread updates its own row (selected by thread id), so concurrent
+ * updates rarely write to the same cache line. Reading a counter sums the rows.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+final class StripedCounters {
+
+    private final int row;
+
+    private final int stripeMask;
+
+    private final AtomicLongArray counters;
+
+    /**
+     * Create the counters, sized for the available processors.
+     *
+     * @param columns the number of counters
+     */
+    StripedCounters(final int columns) {
+        // rounded to a multiple of 16 longs (two cache lines) so that rows do not share a line
+        this.row = (columns + 15) & ~15;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.stripeMask = stripes - 1;
+        this.counters = new AtomicLongArray(stripes * this.row);
+    }
+
+    /**
+     * Increment a counter in the row of the calling thread.
+     *
+     * @param column the counter
+     */
+    void increment(final int column) {
+        this.counters.incrementAndGet(((int) Thread.currentThread().getId() & this.stripeMask) * this.row + column);
+    }
+
+    /**
+     * Gets the value of a counter.
+     *
+     * @param column the counter
+     * @return the sum of the rows
+     */
+    long sum(final int column) {
+        long sum = 0;
+        for (int offset = column; offset < this.counters.length(); offset += this.row) {
+            sum += this.counters.get(offset);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.wima.productkey;
+
+/**
+ * Receives the results of a batch validation, in the order of the keys.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public interface ValidationListener {
+
+    /**
+     * Called once per validated key.
+     *
+     * @param result the result
+     */
+    void validated(ValidationResult result);
+
+}
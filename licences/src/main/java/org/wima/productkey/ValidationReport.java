@@ -0,0 +1,75 @@
+package org.wima.productkey;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of a batch validation.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ValidationReport {
+
+    private final Map<KeyStatus, Long> counts;
+
+    private final long elapsedNanos;
+
+    /**
+     * Create a report.
+     *
+     * @param counts       the number of keys per status
+     * @param elapsedNanos the validation duration (ns)
+     */
+    public ValidationReport(final long[] counts, final long elapsedNanos) {
+        this.counts = new EnumMap<>(KeyStatus.class);
+        for (final KeyStatus status : KeyStatus.values()) {
+            this.counts.put(status, counts[status.ordinal()]);
+        }
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of keys with the specified status.
+     *
+     * @param status the status
+     * @return see description
+     */
+    public long getCount(final KeyStatus status) {
+        return this.counts.get(status);
+    }
+
+    /**
+     * Gets the number of validated keys.
+     *
+     * @return see description
+     */
+    public long getTotal() {
+        long total = 0;
+        for (final Long count : this.counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the validation duration.
+     *
+     * @param unit the unit
+     * @return see description
+     */
+    public long getElapsed(final TimeUnit unit) {
+        return unit.convert(this.elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ValidationReport{" +
+                "counts=" + counts +
+                ", elapsed=" + getElapsed(TimeUnit.MILLISECONDS) + "ms" +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package org.wima.productkey;
+
+import java.util.Arrays;
+
+/**
+ * The result of a key validation.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public final class ValidationResult {
+
+    private final KeyCheck check;
+
+    private final KeyStatus status;
+
+    private final int[] values;
+
+    /**
+     * Create a result.
+     *
+     * @param check  the validated key
+     * @param status the outcome
+     * @param values the decoded values (null unless valid)
+     */
+    public ValidationResult(final KeyCheck check, final KeyStatus status, final int[] values) {
+        this.check = check;
+        this.status = status;
+        this.values = values;
+    }
+
+    /**
+     * Gets the validated key.
+     *
+     * @return see description
+     */
+    public KeyCheck getCheck() {
+        return this.check;
+    }
+
+    /**
+     * Gets status.
+     *
+     * @return Value of status.
+     */
+    public KeyStatus getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Returns true if the key is valid.
+     *
+     * @return see description
+     */
+    public boolean isValid() {
+        return this.status == KeyStatus.VALID;
+    }
+
+    /**
+     * Gets the decoded values.
+     *
+     * @return the values, null unless the key is valid
+     */
+    public int[] getValues() {
+        return this.values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ValidationResult{" +
+                "check=" + check +
+                ", status=" + status +
+                ", values=" + Arrays.toString(values) +
+                '}';
+    }
+}
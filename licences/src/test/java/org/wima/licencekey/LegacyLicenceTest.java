@@ -0,0 +1,114 @@
+package org.wima.licencekey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The licences written by the Java serialization format (the legacy-*.lic files were saved by the first version of
+ * {@link LicenceManagerImpl}, with the bundled keys) are still read, and only the classes a licence is made of can be
+ * deserialized.
+ *
+ * @author Mathieu POUSSE
+ */
+public class LegacyLicenceTest {
+
+    private LicenceManagerImpl manager;
+
+    @Before
+    public void setUp() {
+        this.manager = new LicenceManagerImpl();
+        this.manager.initialize();
+    }
+
+    static String read(final String name) throws IOException {
+        try (InputStream in = LegacyLicenceTest.class.getResourceAsStream(name)) {
+            assertNotNull(name, in);
+            return new String(LicenceEncryptionManagerImpl.toByteArray(in), StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Test
+    public void legacyLicencesAreRead() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            String text = read("legacy-" + i + ".lic");
+            // the owners are 16, 14 and 15 characters long, so that every base64 padding is covered
+            String owner = "Mathieu POUSSE!!".substring(0, 14 + (i + 2) % 3);
+            check(owner, this.manager.loadLicence(text));
+            check(owner, this.manager.loadLicence(LegacyLicenceTest.class.getResourceAsStream("legacy-" + i + ".lic")));
+        }
+    }
+
+    private static void check(final String owner, final ProductLicence licence) {
+        assertNotNull(licence);
+        assertEquals(owner, licence.getOwner());
+        assertEquals(new Date(1800000000000L), licence.getExpireAt());
+        assertEquals(Arrays.asList("the", "wonderful", "features", "are", "enabled"), licence.getFeatures());
+    }
+
+    @Test
+    public void legacyEnvelopeIsASerializationStream() throws IOException {
+        LicenceDecoder decoder = new LicenceDecoder(read("legacy-0.lic"));
+        assertTrue(decoder.next());
+        assertTrue(ProductLicenceCodec.isSerialized(Arrays.copyOf(decoder.buffer(), decoder.length())));
+    }
+
+    @Test
+    public void otherClassesAreNotDeserialized() throws IOException {
+        HashMap<String, String> notALicence = new HashMap<>();
+        notALicence.put("owner", "Mathieu POUSSE");
+        byte[] serialized = serialize(notALicence);
+        try {
+            ProductLicenceCodec.decode(serialized);
+            fail("a map is not part of a licence");
+        } catch (InvalidClassException e) {
+            assertEquals(HashMap.class.getName(), e.classname);
+        }
+
+        // even when properly signed
+        LicenceEncryptionManagerImpl keys = new LicenceEncryptionManagerImpl();
+        keys.load("/public-key.der", "/private-key.der");
+        byte[] signature = keys.sign(serialized);
+        ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(envelope)) {
+            out.writeInt(signature.length);
+            out.write(signature);
+            out.write(serialized);
+        }
+        StringBuilder text = new StringBuilder();
+        LicenceEncoder encoder = new LicenceEncoder(text);
+        encoder.begin();
+        encoder.write(envelope.toByteArray());
+        encoder.end();
+        try {
+            this.manager.loadLicence(text.toString());
+            fail("a map is not part of a licence");
+        } catch (SecurityException e) {
+            assertTrue(e.getCause() instanceof InvalidClassException);
+        }
+    }
+
+    private static byte[] serialize(final Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.wima.licencekey;
+
+import org.junit.Test;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The envelopes go through the licence text unchanged, whatever their version and whatever the text is read from, and
+ * the text is the one the first version of {@link LicenceManagerImpl} wrote (legacy-*.lic files).
+ *
+ * @author Mathieu POUSSE
+ */
+public class LicenceTextTest {
+
+    private static byte[] licence() {
+        ProductLicence licence = new ProductLicence();
+        licence.setOwner("Mathieu POUSSE");
+        licence.setExpireAt(new Date(1800000000000L));
+        licence.setFeatures(Arrays.asList("the", "wonderful", "features", "are", "enabled"));
+        return ProductLicenceCodec.encode(licence);
+    }
+
+    private static byte[] signature(final int length) {
+        byte[] signature = new byte[length];
+        for (int i = 0; i < length; i++) {
+            signature[i] = (byte) (i * 31 + 7);
+        }
+        return signature;
+    }
+
+    private static String encode(final byte[]... envelopes) throws IOException {
+        StringBuilder text = new StringBuilder();
+        LicenceEncoder encoder = new LicenceEncoder(text);
+        for (final byte[] envelope : envelopes) {
+            encoder.begin();
+            encoder.write(envelope);
+            encoder.end();
+        }
+        return text.toString();
+    }
+
+    private static ProductLicenceCodec.Envelope next(final LicenceDecoder decoder) throws IOException {
+        assertTrue(decoder.next());
+        return ProductLicenceCodec.decodeEnvelope(decoder.buffer(), decoder.length());
+    }
+
+    private static void assertEnvelope(final ProductLicenceCodec.Envelope expected, final ProductLicenceCodec.Envelope actual) {
+        assertEquals(expected.getAlgorithm(), actual.getAlgorithm());
+        assertArrayEquals(expected.getSignature(), actual.getSignature());
+        assertArrayEquals(expected.getLicence(), actual.getLicence());
+    }
+
+    @Test
+    public void rsaEnvelopesKeepTheFirstVersion() throws IOException {
+        ProductLicenceCodec.Envelope rsa = new ProductLicenceCodec.Envelope(signature(256), licence());
+        byte[] encoded = ProductLicenceCodec.encodeEnvelope(rsa);
+        assertEquals(ProductLicenceCodec.ENVELOPE_MAGIC, encoded[0]);
+        assertEquals(ProductLicenceCodec.VERSION, encoded[1]);
+
+        LicenceDecoder decoder = new LicenceDecoder(encode(encoded));
+        assertEnvelope(rsa, next(decoder));
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void otherAlgorithmsRecordTheirIdentifier() throws IOException {
+        for (final SignatureAlgorithm algorithm : SignatureAlgorithm.values()) {
+            if (algorithm == SignatureAlgorithm.RSA) {
+                continue;
+            }
+            ProductLicenceCodec.Envelope envelope = new ProductLicenceCodec.Envelope(algorithm, signature(64), licence());
+            byte[] encoded = ProductLicenceCodec.encodeEnvelope(envelope);
+            assertEquals(ProductLicenceCodec.ALGORITHM_VERSION, encoded[1]);
+            assertEquals(algorithm.getId(), encoded[2]);
+
+            LicenceDecoder decoder = new LicenceDecoder(encode(encoded));
+            assertEnvelope(envelope, next(decoder));
+            assertFalse(decoder.next());
+        }
+    }
+
+    @Test
+    public void bundlesAreReadFromAnySource() throws IOException {
+        ProductLicenceCodec.Envelope[] envelopes = new ProductLicenceCodec.Envelope[4];
+        byte[][] encoded = new byte[envelopes.length][];
+        for (int i = 0; i < envelopes.length; i++) {
+            // every signature length modulo 3, so that every base64 padding shows up
+            envelopes[i] = i % 2 == 0 ? new ProductLicenceCodec.Envelope(signature(256 + i), licence())
+                    : new ProductLicenceCodec.Envelope(SignatureAlgorithm.ECDSA_P256, signature(70 + i), licence());
+            encoded[i] = ProductLicenceCodec.encodeEnvelope(envelopes[i]);
+        }
+        String text = "some text before\n" + encode(encoded) + "and after";
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        LicenceDecoder[] decoders = {
+                new LicenceDecoder(text),
+                new LicenceDecoder(new ByteArrayInputStream(bytes)),
+                new LicenceDecoder(Channels.newChannel(new ByteArrayInputStream(bytes)))
+        };
+        for (final LicenceDecoder decoder : decoders) {
+            for (final ProductLicenceCodec.Envelope envelope : envelopes) {
+                assertEnvelope(envelope, next(decoder));
+            }
+            assertFalse(decoder.next());
+        }
+    }
+
+    @Test
+    public void textIsTheHistoricalOne() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            String expected = LegacyLicenceTest.read("legacy-" + i + ".lic");
+            LicenceDecoder decoder = new LicenceDecoder(expected);
+            assertTrue(decoder.next());
+            byte[] envelope = Arrays.copyOf(decoder.buffer(), decoder.length());
+
+            assertEquals(expected, encode(envelope));
+
+            // written part after part, as the licence manager does
+            StringBuilder text = new StringBuilder();
+            LicenceEncoder encoder = new LicenceEncoder(text);
+            encoder.begin();
+            encoder.write(envelope, 0, 1);
+            encoder.write(envelope, 1, 100);
+            encoder.write(envelope, 101, envelope.length - 101);
+            encoder.end();
+            assertEquals(expected, text.toString());
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            encoder = new LicenceEncoder(stream);
+            encoder.begin();
+            encoder.write(envelope);
+            encoder.end();
+            encoder.flush();
+            assertEquals(expected, new String(stream.toByteArray(), StandardCharsets.US_ASCII));
+
+            ByteArrayOutputStream channel = new ByteArrayOutputStream();
+            encoder = new LicenceEncoder(Channels.newChannel(channel));
+            encoder.begin();
+            encoder.write(envelope);
+            encoder.end();
+            encoder.flush();
+            assertEquals(expected, new String(channel.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void licencesRoundTrip() throws IOException {
+        ProductLicence licence = ProductLicenceCodec.decode(licence());
+        assertEquals("Mathieu POUSSE", licence.getOwner());
+        assertEquals(new Date(1800000000000L), licence.getExpireAt());
+        assertEquals(Arrays.asList("the", "wonderful", "features", "are", "enabled"), licence.getFeatures());
+
+        ProductLicence empty = ProductLicenceCodec.decode(ProductLicenceCodec.encode(new ProductLicence()));
+        assertNull(empty.getOwner());
+        assertNull(empty.getExpireAt());
+        assertNull(empty.getFeatures());
+    }
+
+}
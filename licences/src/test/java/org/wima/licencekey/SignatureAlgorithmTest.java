@@ -0,0 +1,129 @@
+package org.wima.licencekey;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A licence is only checked with the algorithm it was signed with: relabelling the algorithm of an envelope does not
+ * make another algorithm check its signature.
+ *
+ * @author Mathieu POUSSE
+ */
+public class SignatureAlgorithmTest {
+
+    private LicenceEncryptionManagerImpl encryptionManager;
+
+    private LicenceManagerImpl licenceManager;
+
+    private String signed;
+
+    @Before
+    public void sign() throws GeneralSecurityException {
+        KeyPair keys = SignatureAlgorithm.ECDSA_P256.generateKeyPair();
+        this.encryptionManager = new LicenceEncryptionManagerImpl();
+        this.encryptionManager.load(keys.getPublic().getEncoded(), keys.getPrivate().getEncoded());
+        this.licenceManager = new LicenceManagerImpl();
+        this.licenceManager.setEncryptionManager(this.encryptionManager);
+        // every licence is checked
+        this.licenceManager.setCache(null);
+
+        ProductLicence licence = new ProductLicence();
+        licence.setOwner("Mathieu POUSSE");
+        licence.setExpireAt(new Date(1800000000000L));
+        licence.setFeatures(Arrays.asList("the", "wonderful", "features"));
+        this.signed = this.licenceManager.saveLicence(licence);
+    }
+
+    private ProductLicenceCodec.Envelope envelope() throws IOException {
+        LicenceDecoder decoder = new LicenceDecoder(this.signed);
+        assertTrue(decoder.next());
+        return ProductLicenceCodec.decodeEnvelope(decoder.buffer(), decoder.length());
+    }
+
+    private static String encode(final byte[] envelope) throws IOException {
+        StringBuilder text = new StringBuilder();
+        LicenceEncoder encoder = new LicenceEncoder(text);
+        encoder.begin();
+        encoder.write(envelope);
+        encoder.end();
+        return text.toString();
+    }
+
+    private String relabel(final SignatureAlgorithm algorithm) throws IOException {
+        ProductLicenceCodec.Envelope envelope = envelope();
+        return encode(ProductLicenceCodec.encodeEnvelope(
+                new ProductLicenceCodec.Envelope(algorithm, envelope.getSignature(), envelope.getLicence())));
+    }
+
+    @Test
+    public void licencesRecordTheirAlgorithm() throws IOException {
+        assertEquals(SignatureAlgorithm.ECDSA_P256, envelope().getAlgorithm());
+        ProductLicence licence = this.licenceManager.loadLicence(this.signed);
+        assertNotNull(licence);
+        assertEquals("Mathieu POUSSE", licence.getOwner());
+        // the envelope is encoded the same way again
+        assertNotNull(this.licenceManager.loadLicence(relabel(SignatureAlgorithm.ECDSA_P256)));
+    }
+
+    @Test
+    public void relabelledLicencesAreRejected() throws IOException {
+        assertNull(this.licenceManager.loadLicence(relabel(SignatureAlgorithm.RSA)));
+        Assume.assumeTrue(SignatureAlgorithm.ED25519.isAvailable());
+        assertNull(this.licenceManager.loadLicence(relabel(SignatureAlgorithm.ED25519)));
+    }
+
+    @Test
+    public void unknownAlgorithmsAreErrors() throws IOException {
+        byte[] envelope = ProductLicenceCodec.encodeEnvelope(envelope());
+        assertEquals(ProductLicenceCodec.ALGORITHM_VERSION, envelope[1]);
+        envelope[2] = 9;
+        try {
+            this.licenceManager.loadLicence(encode(envelope));
+            fail("unknown algorithm accepted");
+        } catch (SecurityException e) {
+            assertEquals("unsupported signature algorithm 9", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void otherEncryptionManagersOnlyCheckRsa() {
+        // an encryption manager unaware of the algorithms, checking whatever it is given with the loaded keys
+        this.licenceManager.setEncryptionManager(new LicenceEncryptionManager() {
+            @Override
+            public void load(final String publicKeyFile) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void load(final String publicKeyFile, final String privateKeyFile) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean verify(final byte[] content, final byte[] signature) {
+                return SignatureAlgorithmTest.this.encryptionManager.verify(content, signature);
+            }
+
+            @Override
+            public byte[] sign(final byte[] data) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        assertNull(this.licenceManager.loadLicence(this.signed));
+    }
+
+}
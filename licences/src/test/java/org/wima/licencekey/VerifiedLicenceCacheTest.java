@@ -0,0 +1,95 @@
+package org.wima.licencekey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wima.licencekey.LicenceManager.ProductLicence;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The verified licences are forgotten when they expire, when the keys change and when the cache is full.
+ *
+ * @author Mathieu POUSSE
+ */
+public class VerifiedLicenceCacheTest {
+
+    private LicenceEncryptionManagerImpl encryptionManager;
+
+    private LicenceManagerImpl licenceManager;
+
+    private String signed;
+
+    @Before
+    public void sign() throws GeneralSecurityException {
+        KeyPair keys = SignatureAlgorithm.ECDSA_P256.generateKeyPair();
+        this.encryptionManager = new LicenceEncryptionManagerImpl();
+        this.encryptionManager.load(keys.getPublic().getEncoded(), keys.getPrivate().getEncoded());
+        this.licenceManager = new LicenceManagerImpl();
+        this.licenceManager.setEncryptionManager(this.encryptionManager);
+
+        ProductLicence licence = new ProductLicence();
+        licence.setOwner("Mathieu POUSSE");
+        this.signed = this.licenceManager.saveLicence(licence);
+    }
+
+    @Test
+    public void licencesExpire() throws InterruptedException {
+        VerifiedLicenceCache cache = new VerifiedLicenceCache(16, 50, TimeUnit.MILLISECONDS);
+        this.licenceManager.setCache(cache);
+        assertNotNull(this.licenceManager.loadLicence(this.signed));
+        assertNotNull(this.licenceManager.loadLicence(this.signed));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Thread.sleep(100);
+        assertNotNull(this.licenceManager.loadLicence(this.signed));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void newKeysInvalidateTheLicences() throws GeneralSecurityException {
+        VerifiedLicenceCache cache = new VerifiedLicenceCache();
+        this.licenceManager.setCache(cache);
+        assertNotNull(this.licenceManager.loadLicence(this.signed));
+        assertNotNull(this.licenceManager.loadLicence(this.signed));
+        assertEquals(1, cache.getHits());
+
+        // the licence was signed with the previous keys, it is checked again and rejected
+        this.encryptionManager.load(SignatureAlgorithm.ECDSA_P256.generateKeyPair().getPublic().getEncoded());
+        assertNull(this.licenceManager.loadLicence(this.signed));
+        assertNull(this.licenceManager.loadLicence(this.signed));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void capacityIsBounded() {
+        VerifiedLicenceCache cache = new VerifiedLicenceCache(64, 1, TimeUnit.MINUTES);
+        PublicKey publicKey = this.encryptionManager.getPublicKey();
+        ByteBuffer hot = VerifiedLicenceCache.digest("hot");
+        cache.put(hot, publicKey, null);
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(cache.get(hot, publicKey));
+            cache.put(VerifiedLicenceCache.digest("licence " + i), publicKey, null);
+            assertTrue(cache.size() <= 64);
+        }
+        // the licence used between the sweeps is kept
+        assertNotNull(cache.get(hot, publicKey));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(hot, publicKey));
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.wima.productkey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Keys too short to hold the hidden values, or that cannot be decoded with the requested sizes, are rejected with a
+ * status, whatever the validation path.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class KeyLengthTest {
+
+    private static final String OWNER = "Mathieu POUSSE";
+
+    private static final int[] SIZES = {4, 4, 8};
+
+    private static final int[] VALUES = {3, 12, 25};
+
+    private ProductKeyGenerator generator;
+
+    private String key;
+
+    @Before
+    public void setUp() {
+        this.generator = new ProductKeyGenerator() {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+        };
+        this.generator.randomize(16, ProductKeyManagerImpl.KEY_LENGTH);
+        this.key = this.generator.pack(VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, this.generator.salt(OWNER), ProductKeyManagerImpl.PASSES, false);
+    }
+
+    @Test
+    public void shortKeysAreNotValid() {
+        assertArrayEquals(VALUES, this.generator.unpack(this.key, OWNER, SIZES));
+        assertNull(this.generator.unpack("", OWNER, SIZES));
+        assertNull(this.generator.unpack("ABC", OWNER, SIZES));
+        assertNull(this.generator.unpack("-----", OWNER, SIZES));
+        KeyValues values = new KeySchema(KeySchema.Field.bits("a", 4), KeySchema.Field.bits("b", 4), KeySchema.Field.bits("c", 8)).newValues();
+        assertEquals(KeyStatus.INVALID_LENGTH, this.generator.unpack("", OWNER, values));
+    }
+
+    @Test
+    public void illegalCharactersAreNotThrown() {
+        String illegal = this.key.substring(0, this.key.length() - 1) + '!';
+        assertNull(this.generator.unpack(illegal, OWNER, SIZES));
+        assertNull(this.generator.unpack(illegal, this.generator.salt(OWNER), SIZES));
+        KeyValues values = new KeySchema(KeySchema.Field.bits("a", 4), KeySchema.Field.bits("b", 4), KeySchema.Field.bits("c", 8)).newValues();
+        assertEquals(KeyStatus.ILLEGAL_CHARACTER, this.generator.unpack(illegal, OWNER, values));
+    }
+
+    @Test
+    public void shortKeysDoNotAbortABatch() {
+        List<KeyCheck> checks = new ArrayList<>();
+        checks.add(new KeyCheck("ABC", OWNER, SIZES));
+        checks.add(new KeyCheck(this.key, OWNER, SIZES));
+        checks.add(new KeyCheck("", OWNER, SIZES));
+        final List<ValidationResult> results = new ArrayList<>();
+        ValidationReport report = this.generator.unpackAll(checks.iterator(), new ValidationListener() {
+            @Override
+            public void validated(final ValidationResult result) {
+                results.add(result);
+            }
+        });
+        assertEquals(2, report.getCount(KeyStatus.INVALID_LENGTH));
+        assertEquals(1, report.getCount(KeyStatus.VALID));
+        assertEquals(Arrays.asList(KeyStatus.INVALID_LENGTH, KeyStatus.VALID, KeyStatus.INVALID_LENGTH),
+                Arrays.asList(results.get(0).getStatus(), results.get(1).getStatus(), results.get(2).getStatus()));
+    }
+
+    @Test
+    public void invalidLayoutsDoNotAbortABatch() {
+        List<KeyCheck> checks = new ArrayList<>();
+        // wider than 32 bits, and more bits than the signature holds
+        checks.add(new KeyCheck(this.key, OWNER, new int[]{40}));
+        checks.add(new KeyCheck(this.key, OWNER, SIZES));
+        checks.add(new KeyCheck(this.key, OWNER, new int[]{16, 16}));
+        ValidationReport report = this.generator.unpackAll(checks.iterator(), null);
+        assertEquals(2, report.getCount(KeyStatus.INVALID_LAYOUT));
+        assertEquals(1, report.getCount(KeyStatus.VALID));
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.wima.productkey;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Keys packed from a schema have the issued length and are valid for the manager that packed them, even when it only
+ * accepts keys of that length.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class KeySchemaTest {
+
+    private static final String OWNER = "Mathieu POUSSE";
+
+    private static final KeySchema SCHEMA = new KeySchema(KeySchema.Field.bits("edition", 4), KeySchema.Field.bits("seats", 12), KeySchema.Field.bits("serial", 40));
+
+    @Test
+    public void packedKeysHaveTheIssuedLength() {
+        ProductKeyGenerator generator = new ProductKeyGenerator(ProductKeyManagerImpl.CHARACTERS_64) {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+
+            @Override
+            protected int getKeyLength() {
+                return 48;
+            }
+
+            @Override
+            protected int getValidatedKeyLength() {
+                return getKeyLength();
+            }
+        };
+        KeyValues values = SCHEMA.newValues().setLong("edition", 3).setLong("seats", 250).setLong("serial", 1L << 39 | 12345);
+        String key = generator.pack(values, OWNER);
+        assertEquals(48, key.length());
+
+        KeyValues decoded = SCHEMA.newValues();
+        assertEquals(KeyStatus.VALID, generator.unpack(key, OWNER, decoded));
+        assertEquals(3, decoded.getLong("edition"));
+        assertEquals(250, decoded.getLong("seats"));
+        assertEquals(1L << 39 | 12345, decoded.getLong("serial"));
+    }
+
+}
@@ -0,0 +1,39 @@
+package org.wima.productkey;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The codecs of a signature are built once per layout, even when the callers alternate between layouts.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class ProductKeySignatureTest {
+
+    private static final int[] SIZES = {4, 4, 8};
+
+    private static final int[] OTHER_SIZES = {8, 8};
+
+    @Test
+    public void alternatingLayoutsReuseTheirCodecs() {
+        int[] positions = new int[48];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i * 3;
+        }
+        ProductKeySignature signature = new ProductKeySignature(positions, ProductKeyManagerImpl.CHARACTERS_32);
+        ProductKeyCodec codec = signature.codec(SIZES, 3);
+        ProductKeyCodec other = signature.codec(OTHER_SIZES, 3);
+        ProductKeyCodec sized = signature.codec(SIZES, 3, 35);
+        assertNotSame(codec, other);
+        assertNotSame(codec, sized);
+        for (int i = 0; i < 10; i++) {
+            assertSame(codec, signature.codec(SIZES, 3));
+            assertSame(other, signature.codec(OTHER_SIZES, 3));
+            assertSame(sized, signature.codec(SIZES, 3, 35));
+        }
+        assertSame(codec, signature.codec(new int[]{4, 4, 8}, 3));
+    }
+
+}
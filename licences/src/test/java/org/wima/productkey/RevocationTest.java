@@ -0,0 +1,176 @@
+package org.wima.productkey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A revoked key stays revoked however it is written: keys are revoked by content, so neither the separators, the filler
+ * characters nor the length matter. Keys of other lengths are only rejected when the manager asks for it.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class RevocationTest {
+
+    private static final String OWNER = "Mathieu POUSSE";
+
+    private static final int[] SIZES = {4, 4, 8};
+
+    private static final int[] VALUES = {3, 12, 25};
+
+    private static final int[] OTHER_VALUES = {3, 12, 26};
+
+    private ProductKeyGenerator generator;
+
+    /**
+     * Rejects the keys whose length is not the issued one.
+     */
+    private ProductKeyGenerator lengthChecking;
+
+    private String revoked;
+
+    private String valid;
+
+    @Before
+    public void setUp() {
+        this.generator = new ProductKeyGenerator() {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+        };
+        // the last characters hold no hidden bit: only the issued length tells a shortened key apart
+        this.generator.randomize(16, ProductKeyManagerImpl.KEY_LENGTH - 2);
+        byte[] salt = this.generator.salt(OWNER);
+        this.revoked = this.generator.pack(VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, salt, ProductKeyManagerImpl.PASSES, false);
+        this.valid = this.generator.pack(OTHER_VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, salt, ProductKeyManagerImpl.PASSES, false);
+        this.generator.setRevocationIndex(RevocationIndex.of(new long[]{this.generator.fingerprint(this.revoked, OWNER, SIZES)}));
+
+        this.lengthChecking = new ProductKeyGenerator() {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+
+            @Override
+            protected int getValidatedKeyLength() {
+                return getKeyLength();
+            }
+        };
+        this.lengthChecking.reloadSignature(this.generator.getSignature().serialize());
+    }
+
+    private KeyStatus status(final String key) {
+        return this.generator.unpack(key, OWNER, new KeySchema(KeySchema.Field.bits("a", 4), KeySchema.Field.bits("b", 4), KeySchema.Field.bits("c", 8)).newValues());
+    }
+
+    @Test
+    public void revokedKeyIsRejected() {
+        assertNull(this.generator.unpack(this.revoked, OWNER, SIZES));
+        assertEquals(KeyStatus.REVOKED, status(this.revoked));
+        assertEquals(KeyStatus.REVOKED, status(this.generator.formatKey(this.revoked, 5)));
+        assertArrayEquals(OTHER_VALUES, this.generator.unpack(this.valid, OWNER, SIZES));
+        assertEquals(KeyStatus.VALID, status(this.valid));
+    }
+
+    @Test
+    public void changingAFillerCharacterDoesNotUnrevoke() {
+        ProductKeySignature signature = this.generator.getSignature();
+        boolean[] hidden = new boolean[this.revoked.length()];
+        for (final int position : signature.positions()) {
+            hidden[position / signature.getBitsPerCharacter()] = true;
+        }
+        char[] characters = signature.getCharacters();
+        int fillers = 0;
+        for (int i = 0; i < this.revoked.length(); i++) {
+            for (final char c : characters) {
+                if (c == this.revoked.charAt(i)) {
+                    continue;
+                }
+                String changed = this.revoked.substring(0, i) + c + this.revoked.substring(i + 1);
+                KeyStatus status = status(changed);
+                if (!hidden[i]) {
+                    assertEquals(KeyStatus.REVOKED, status);
+                }
+                assertNotEquals(KeyStatus.VALID, status);
+            }
+            if (!hidden[i]) {
+                fillers++;
+            }
+        }
+        assertTrue("the signature leaves filler characters", fillers > 0);
+    }
+
+    @Test
+    public void fingerprintRequiresAValidKey() {
+        try {
+            this.generator.fingerprint(this.revoked.substring(0, 3), OWNER, SIZES);
+            fail("a key too short to be valid has no fingerprint");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void appendingACharacterDoesNotUnrevoke() {
+        String longer = this.revoked + "A";
+        assertNull(this.generator.unpack(longer, OWNER, SIZES));
+        assertEquals(KeyStatus.REVOKED, status(longer));
+        assertArrayEquals(OTHER_VALUES, this.generator.unpack(this.valid + "A", OWNER, SIZES));
+    }
+
+    @Test
+    public void removingACharacterDoesNotUnrevoke() {
+        String shorter = this.revoked.substring(0, this.revoked.length() - 1);
+        assertNull(this.generator.unpack(shorter, OWNER, SIZES));
+        assertEquals(KeyStatus.REVOKED, status(shorter));
+    }
+
+    @Test
+    public void keysOfAnyLengthAreValidByDefault() {
+        byte[] salt = this.generator.salt(OWNER);
+        this.generator.randomize(16, 30);
+        this.lengthChecking.reloadSignature(this.generator.getSignature().serialize());
+        this.generator.setRevocationIndex(null);
+        for (final int length : new int[]{30, 40}) {
+            String key = this.generator.pack(VALUES, SIZES, length, salt, ProductKeyManagerImpl.PASSES, false);
+            assertArrayEquals(VALUES, this.generator.unpack(key, OWNER, SIZES));
+            assertNull(this.lengthChecking.unpack(key, OWNER, SIZES));
+        }
+    }
+
+    @Test
+    public void lengthIsCheckedOnRequest() {
+        assertArrayEquals(OTHER_VALUES, this.lengthChecking.unpack(this.valid, OWNER, SIZES));
+        assertNull(this.lengthChecking.unpack(this.valid + "A", OWNER, SIZES));
+        assertNull(this.lengthChecking.unpack(this.valid.substring(1), OWNER, SIZES));
+        KeyValues values = new KeySchema(KeySchema.Field.bits("a", 4), KeySchema.Field.bits("b", 4), KeySchema.Field.bits("c", 8)).newValues();
+        assertEquals(KeyStatus.INVALID_LENGTH, this.lengthChecking.unpack(this.valid + "A", OWNER, values));
+    }
+
+    @Test
+    public void versionedKeysAreRevokedByContent() {
+        // the version takes the first character, the last one holds no hidden bit
+        this.generator.randomize(16, ProductKeyManagerImpl.KEY_LENGTH - 2);
+        ProductKeyRegistry registry = new ProductKeyRegistry();
+        registry.register(1, this.generator.getSignature());
+        String versioned = this.generator.pack(registry, 1, VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, this.generator.salt(OWNER), ProductKeyManagerImpl.PASSES);
+        this.generator.setRegistry(registry);
+        this.generator.setRevocationIndex(RevocationIndex.of(new long[]{this.generator.fingerprint(versioned, OWNER, SIZES)}));
+        assertEquals(KeyStatus.REVOKED, status(versioned));
+        assertEquals(KeyStatus.REVOKED, status(versioned + "A"));
+        assertEquals(KeyStatus.REVOKED, status(versioned.substring(0, versioned.length() - 1)));
+        this.lengthChecking.setRegistry(registry);
+        assertEquals(VALUES[2], this.lengthChecking.unpack(versioned, OWNER, SIZES)[2]);
+        assertNull(this.lengthChecking.unpack(versioned + "A", OWNER, SIZES));
+        this.generator.setRevocationIndex(null);
+        assertEquals(KeyStatus.VALID, status(versioned));
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.wima.productkey;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The salt cache counts its hits and misses, stays bounded and keeps the salt of a null owner as it always was.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class SaltCacheTest {
+
+    @Test
+    public void countsHitsAndMisses() {
+        SaltCache cache = new SaltCache(16);
+        Salt salt = cache.get("Mathieu POUSSE");
+        assertSame(salt, cache.get("Mathieu POUSSE"));
+        assertSame(salt, cache.get("Mathieu POUSSE"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertArrayEquals(SaltCache.digest("Mathieu POUSSE"), salt.getBytes());
+    }
+
+    @Test
+    public void staysBounded() {
+        SaltCache cache = new SaltCache(64);
+        for (int i = 0; i < 10000; i++) {
+            cache.get("owner " + i);
+        }
+        assertTrue(cache.size() <= 64);
+    }
+
+    @Test
+    public void nullOwnerIsSaltedWithZero() {
+        ProductKeyGenerator generator = new ProductKeyGenerator() {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+        };
+        assertArrayEquals(new byte[]{0}, generator.salt(null));
+        assertArrayEquals(new byte[]{0}, SaltCache.digest(null));
+        assertEquals(0, generator.getSaltCache().size());
+    }
+
+}
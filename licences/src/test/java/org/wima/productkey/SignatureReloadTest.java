@@ -0,0 +1,141 @@
+package org.wima.productkey;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validations racing with signature reloads must only ever see a whole signature: the previous one or the new one.
+ *
+ * @author Mathieu POUSSE <mathieu.pousse@wima.com>
+ */
+public class SignatureReloadTest {
+
+    private static final String OWNER = "Mathieu POUSSE";
+
+    private static final int[] SIZES = {4, 4, 8};
+
+    private static final int[] VALUES = {3, 12, 25};
+
+    private static final int VALIDATORS = 4;
+
+    private static final long DURATION = TimeUnit.SECONDS.toNanos(2);
+
+    private static ProductKeyGenerator generator() {
+        return new ProductKeyGenerator() {
+            @Override
+            public String getLicenceSignature() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void validationsNeverSeeAPartialSignature() throws Exception {
+        final ProductKeyGenerator generator = generator();
+        generator.randomize(16, ProductKeyManagerImpl.KEY_LENGTH);
+        final String signatureA = generator.getSignature().serialize();
+        final String keyA = generator.pack(VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, generator.salt(OWNER), ProductKeyManagerImpl.PASSES, false);
+        generator.randomize(16, ProductKeyManagerImpl.KEY_LENGTH);
+        final String signatureB = generator.getSignature().serialize();
+        final String keyB = generator.pack(VALUES, SIZES, ProductKeyManagerImpl.KEY_LENGTH, generator.salt(OWNER), ProductKeyManagerImpl.PASSES, false);
+
+        // each key is only valid with its own signature
+        generator.reloadSignature(signatureA);
+        assertArrayEquals(VALUES, generator.unpack(keyA, OWNER, SIZES));
+        assertNull(generator.unpack(keyB, OWNER, SIZES));
+        generator.reloadSignature(signatureB);
+        assertArrayEquals(VALUES, generator.unpack(keyB, OWNER, SIZES));
+        assertNull(generator.unpack(keyA, OWNER, SIZES));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(VALIDATORS + 1);
+        ExecutorService executor = Executors.newFixedThreadPool(VALIDATORS + 1);
+        try {
+            Future<Long> reloads = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    started.countDown();
+                    long count = 0;
+                    long end = System.nanoTime() + DURATION;
+                    while (System.nanoTime() < end) {
+                        generator.reloadSignature((count & 1) == 0 ? signatureA : signatureB);
+                        count++;
+                    }
+                    running.set(false);
+                    return count;
+                }
+            });
+            List<Future<long[]>> validators = new ArrayList<>();
+            for (int i = 0; i < VALIDATORS; i++) {
+                validators.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() {
+                        started.countDown();
+                        // accepted key A, accepted key B, rejected
+                        long[] outcomes = new long[3];
+                        boolean first = true;
+                        while (running.get()) {
+                            // a published signature is one of the two, and its codec only accepts its own key
+                            ProductKeySignature published = generator.getSignature();
+                            String serialized = published.serialize();
+                            boolean isA = serialized.equals(signatureA);
+                            if (!isA && !serialized.equals(signatureB)) {
+                                throw new AssertionError("partial signature published: " + serialized);
+                            }
+                            ProductKeyCodec codec = published.codec(SIZES, ProductKeyManagerImpl.PASSES);
+                            if (!Arrays.equals(VALUES, codec.decode(isA ? keyA : keyB, generator.salt(OWNER)))
+                                    || codec.decode(isA ? keyB : keyA, generator.salt(OWNER)) != null) {
+                                throw new AssertionError("the codec does not match its signature");
+                            }
+
+                            String key = first ? keyA : keyB;
+                            int[] values = generator.unpack(key, OWNER, SIZES);
+                            if (values == null) {
+                                outcomes[2]++;
+                            } else {
+                                if (!Arrays.equals(VALUES, values)) {
+                                    throw new AssertionError("partial signature seen: " + Arrays.toString(values));
+                                }
+                                outcomes[first ? 0 : 1]++;
+                            }
+                            first = !first;
+                        }
+                        return outcomes;
+                    }
+                }));
+            }
+
+            assertTrue(reloads.get() > 0);
+            long[] total = new long[3];
+            for (final Future<long[]> validator : validators) {
+                long[] outcomes = validator.get();
+                for (int i = 0; i < total.length; i++) {
+                    total[i] += outcomes[i];
+                }
+            }
+            // both signatures have been in use, each key being accepted while its own was published
+            assertTrue("key A never accepted", total[0] > 0);
+            assertTrue("key B never accepted", total[1] > 0);
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(0, started.getCount());
+    }
+
+}